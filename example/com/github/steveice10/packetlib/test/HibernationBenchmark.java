@@ -0,0 +1,125 @@
+package com.github.steveice10.packetlib.test;
+
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
+import com.github.steveice10.packetlib.Server;
+import com.github.steveice10.packetlib.Session;
+import com.github.steveice10.packetlib.packet.DefaultPacketHeader;
+import com.github.steveice10.packetlib.packet.PacketHeader;
+import com.github.steveice10.packetlib.packet.PacketProtocol;
+import com.github.steveice10.packetlib.tcp.TcpClientSession;
+import com.github.steveice10.packetlib.tcp.TcpServer;
+import com.github.steveice10.packetlib.tcp.TcpSession;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the memory retained per idle connection while sessions are active and after
+ * they have hibernated.
+ *
+ * Usage: HibernationBenchmark [connections] [hibernate-after-seconds]
+ */
+public class HibernationBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 25566;
+
+    public static void main(String[] args) throws InterruptedException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int hibernateAfter = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        Server server = new TcpServer(HOST, PORT, BenchmarkProtocol::new);
+        server.setGlobalFlag(BuiltinFlagKeys.HIBERNATE_AFTER, hibernateAfter);
+        server.bind();
+
+        List<Session> clients = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Session client = new TcpClientSession(HOST, PORT, new BenchmarkProtocol());
+            client.setFlag(BuiltinFlagKeys.HIBERNATE_AFTER, hibernateAfter);
+            client.connect();
+            clients.add(client);
+        }
+
+        while (server.getSessions().size() < connections) {
+            Thread.sleep(10);
+        }
+
+        for (Session session : server.getSessions()) {
+            session.setCompressionThreshold(256, false);
+        }
+
+        // Push one compressed packet through every connection so each has touched its buffers and compressor.
+        String payload = "x".repeat(1024);
+        for (Session client : clients) {
+            client.setCompressionThreshold(256, false);
+            client.send(new PingPacket(payload));
+        }
+
+        Thread.sleep(500);
+        report("active", server, clients);
+
+        Thread.sleep((hibernateAfter + 1) * 1000L);
+        report("idle", server, clients);
+
+        for (Session client : clients) {
+            client.disconnect("Benchmark finished.");
+        }
+
+        server.close();
+    }
+
+    private static void report(String phase, Server server, List<Session> clients) {
+        List<Session> sessions = new ArrayList<>(clients);
+        sessions.addAll(server.getSessions());
+
+        long retained = 0;
+        int hibernating = 0;
+        for (Session session : sessions) {
+            TcpSession tcp = (TcpSession) session;
+            retained += tcp.getRetainedInboundBytes();
+            if (tcp.isHibernating()) {
+                hibernating++;
+            }
+        }
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        long pooled = PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory() + PooledByteBufAllocator.DEFAULT.metric().usedHeapMemory();
+        long direct = PlatformDependent.usedDirectMemory();
+
+        int count = sessions.size();
+        System.out.printf("%s: %d sessions, %d hibernating%n", phase, count, hibernating);
+        System.out.printf("  heap:              %d bytes/session%n", heap / count);
+        System.out.printf("  pooled buffers:    %d bytes/session%n", pooled / count);
+        System.out.printf("  direct memory:     %d bytes/session%n", direct / count);
+        System.out.printf("  cumulation:        %d bytes/session%n", retained / count);
+    }
+
+    private static class BenchmarkProtocol extends PacketProtocol {
+        private final PacketHeader header = new DefaultPacketHeader();
+
+        public BenchmarkProtocol() {
+            this.register(0, PingPacket.class, PingPacket::new);
+        }
+
+        @Override
+        public String getSRVRecordPrefix() {
+            return "_benchmark";
+        }
+
+        @Override
+        public PacketHeader getPacketHeader() {
+            return this.header;
+        }
+
+        @Override
+        public void newClientSession(Session session) {
+        }
+
+        @Override
+        public void newServerSession(Server server, Session session) {
+        }
+    }
+}
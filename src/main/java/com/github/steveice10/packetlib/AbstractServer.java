@@ -2,18 +2,27 @@ package com.github.steveice10.packetlib;
 
 import com.github.steveice10.packetlib.event.server.*;
 import com.github.steveice10.packetlib.packet.PacketProtocol;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.internal.ThreadExecutorMap;
+import io.netty.util.concurrent.ScheduledFuture;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 public abstract class AbstractServer implements Server {
+    private static final int DISCONNECT_TIMEOUT = 5;
+
     private final String host;
     private final int port;
     private final Supplier<? extends PacketProtocol> protocolSupplier;
 
     private final List<Session> sessions = new ArrayList<>();
 
-    private final Map<String, Object> flags = new HashMap<>();
+    private final FlagMap flags = new FlagMap();
     private final List<ServerListener> listeners = new ArrayList<>();
 
     public AbstractServer(String host, int port, Supplier<? extends PacketProtocol> protocolSupplier) {
@@ -43,12 +52,21 @@ public abstract class AbstractServer implements Server {
 
     @Override
     public Map<String, Object> getGlobalFlags() {
-        return Collections.unmodifiableMap(this.flags);
+        return this.flags.snapshot();
+    }
+
+    /**
+     * Gets the map backing this server's flags, which its sessions fall back to.
+     *
+     * @return This server's flag map.
+     */
+    public FlagMap getGlobalFlagMap() {
+        return this.flags;
     }
 
     @Override
     public boolean hasGlobalFlag(String key) {
-        return this.flags.containsKey(key);
+        return this.flags.has(key);
     }
 
     @Override
@@ -59,21 +77,32 @@ public abstract class AbstractServer implements Server {
     @SuppressWarnings("unchecked")
     @Override
     public <T> T getGlobalFlag(String key, T def) {
-        Object value = this.flags.get(key);
-        if(value == null) {
-            return def;
-        }
-
-        try {
-            return (T) value;
-        } catch(ClassCastException e) {
-            throw new IllegalStateException("Tried to get flag \"" + key + "\" as the wrong type. Actual type: " + value.getClass().getName());
-        }
+        return (T) this.flags.get(key, def);
     }
 
     @Override
     public void setGlobalFlag(String key, Object value) {
-        this.flags.put(key, value);
+        this.flags.set(key, value);
+    }
+
+    @Override
+    public boolean hasGlobalFlag(Flag<?> flag) {
+        return this.flags.has(flag);
+    }
+
+    @Override
+    public <T> T getGlobalFlag(Flag<T> flag) {
+        return this.flags.get(flag);
+    }
+
+    @Override
+    public <T> T getGlobalFlag(Flag<T> flag, T def) {
+        return this.flags.get(flag, def);
+    }
+
+    @Override
+    public <T> void setGlobalFlag(Flag<T> flag, T value) {
+        this.flags.set(flag, value);
     }
 
     @Override
@@ -153,18 +182,52 @@ public abstract class AbstractServer implements Server {
     @Override
     public void close(boolean wait, Runnable callback) {
         this.callEvent(new ServerClosingEvent(this));
+
+        // Sessions are disconnected all at once, each closing on its own event loop.
+        List<Future<Void>> disconnects = new ArrayList<>();
         for(Session session : this.getSessions()) {
             if(session.isConnected()) {
-                session.disconnect("Server closed.");
+                disconnects.add(session.disconnectAsync("Server closed."));
             }
         }
 
-        this.closeImpl(wait, () -> {
+        // Waiting on a Netty thread could block an event loop on its own sessions, so the
+        // close completes asynchronously there instead.
+        boolean block = wait && ThreadExecutorMap.currentExecutor() == null;
+        Runnable closeServer = () -> this.closeImpl(block, () -> {
             callEvent(new ServerClosedEvent(AbstractServer.this));
             if(callback != null) {
                 callback.run();
             }
         });
+
+        if(block || disconnects.isEmpty()) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DISCONNECT_TIMEOUT);
+            for(Future<Void> disconnect : disconnects) {
+                disconnect.awaitUninterruptibly(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+
+            closeServer.run();
+        } else {
+            // Close once every session is gone, or after the timeout if one of them hangs.
+            AtomicBoolean closed = new AtomicBoolean();
+            Runnable closeOnce = () -> {
+                if(closed.compareAndSet(false, true)) {
+                    closeServer.run();
+                }
+            };
+
+            ScheduledFuture<?> timeout = GlobalEventExecutor.INSTANCE.schedule(closeOnce, DISCONNECT_TIMEOUT, TimeUnit.SECONDS);
+            AtomicInteger remaining = new AtomicInteger(disconnects.size());
+            for(Future<Void> disconnect : disconnects) {
+                disconnect.addListener(future -> {
+                    if(remaining.decrementAndGet() == 0) {
+                        timeout.cancel(false);
+                        closeOnce.run();
+                    }
+                });
+            }
+        }
     }
 
     protected abstract void closeImpl(boolean wait, Runnable callback);
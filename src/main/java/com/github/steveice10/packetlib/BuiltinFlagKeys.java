@@ -0,0 +1,61 @@
+package com.github.steveice10.packetlib;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Typed keys for the {@link BuiltinFlags}, sharing their names and therefore their values.
+ */
+public class BuiltinFlagKeys {
+    /**
+     * @see BuiltinFlags#PRINT_DEBUG
+     */
+    public static final Flag<Boolean> PRINT_DEBUG = Flag.of(BuiltinFlags.PRINT_DEBUG, Boolean.class, false);
+
+    /**
+     * @see BuiltinFlags#ENABLE_CLIENT_PROXY_PROTOCOL
+     */
+    public static final Flag<Boolean> ENABLE_CLIENT_PROXY_PROTOCOL = Flag.of(BuiltinFlags.ENABLE_CLIENT_PROXY_PROTOCOL, Boolean.class, false);
+
+    /**
+     * @see BuiltinFlags#CLIENT_PROXIED_ADDRESS
+     */
+    public static final Flag<InetSocketAddress> CLIENT_PROXIED_ADDRESS = Flag.of(BuiltinFlags.CLIENT_PROXIED_ADDRESS, InetSocketAddress.class);
+
+    /**
+     * @see BuiltinFlags#ATTEMPT_SRV_RESOLVE
+     */
+    public static final Flag<Boolean> ATTEMPT_SRV_RESOLVE = Flag.of(BuiltinFlags.ATTEMPT_SRV_RESOLVE, Boolean.class, true);
+
+    /**
+     * @see BuiltinFlags#WRITE_BUFFER_HIGH_WATER_MARK
+     */
+    public static final Flag<Integer> WRITE_BUFFER_HIGH_WATER_MARK = Flag.of(BuiltinFlags.WRITE_BUFFER_HIGH_WATER_MARK, Integer.class);
+
+    /**
+     * @see BuiltinFlags#WRITE_BUFFER_LOW_WATER_MARK
+     */
+    public static final Flag<Integer> WRITE_BUFFER_LOW_WATER_MARK = Flag.of(BuiltinFlags.WRITE_BUFFER_LOW_WATER_MARK, Integer.class);
+
+    /**
+     * @see BuiltinFlags#INBOUND_HIGH_WATER_MARK
+     */
+    public static final Flag<Integer> INBOUND_HIGH_WATER_MARK = Flag.of(BuiltinFlags.INBOUND_HIGH_WATER_MARK, Integer.class, 0);
+
+    /**
+     * @see BuiltinFlags#INBOUND_LOW_WATER_MARK
+     */
+    public static final Flag<Integer> INBOUND_LOW_WATER_MARK = Flag.of(BuiltinFlags.INBOUND_LOW_WATER_MARK, Integer.class);
+
+    /**
+     * @see BuiltinFlags#MAX_FRAME_SIZE
+     */
+    public static final Flag<Integer> MAX_FRAME_SIZE = Flag.of(BuiltinFlags.MAX_FRAME_SIZE, Integer.class, -1);
+
+    /**
+     * @see BuiltinFlags#HIBERNATE_AFTER
+     */
+    public static final Flag<Integer> HIBERNATE_AFTER = Flag.of(BuiltinFlags.HIBERNATE_AFTER, Integer.class, 0);
+
+    private BuiltinFlagKeys() {
+    }
+}
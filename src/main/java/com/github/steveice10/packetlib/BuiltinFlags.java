@@ -2,6 +2,8 @@ package com.github.steveice10.packetlib;
 
 /**
  * Built-in PacketLib session flags.
+ *
+ * @see BuiltinFlagKeys
  */
 public class BuiltinFlags {
     /**
@@ -18,6 +20,40 @@ public class BuiltinFlags {
      */
     public static final String ATTEMPT_SRV_RESOLVE = "attempt-srv-resolve";
 
+    /**
+     * Number of queued outbound bytes above which a session stops being writable.
+     */
+    public static final String WRITE_BUFFER_HIGH_WATER_MARK = "write-buffer-high-water-mark";
+
+    /**
+     * Number of queued outbound bytes below which a session becomes writable again.
+     */
+    public static final String WRITE_BUFFER_LOW_WATER_MARK = "write-buffer-low-water-mark";
+
+    /**
+     * Number of received packets waiting to be handled above which a session stops
+     * reading from its connection. Reading is not paused when unset.
+     */
+    public static final String INBOUND_HIGH_WATER_MARK = "inbound-high-water-mark";
+
+    /**
+     * Number of received packets waiting to be handled below which a paused session
+     * resumes reading. Defaults to half of the high water mark.
+     */
+    public static final String INBOUND_LOW_WATER_MARK = "inbound-low-water-mark";
+
+    /**
+     * Maximum length of a received frame in bytes, checked as soon as its length prefix
+     * is read. Applies in addition to {@link com.github.steveice10.packetlib.packet.PacketProtocol#getMaxFrameSize()}.
+     */
+    public static final String MAX_FRAME_SIZE = "max-frame-size";
+
+    /**
+     * Number of seconds without reads or writes after which a session hibernates, releasing
+     * resources that are recreated on demand. Sessions do not hibernate when unset.
+     */
+    public static final String HIBERNATE_AFTER = "hibernate-after";
+
     private BuiltinFlags() {
     }
 }
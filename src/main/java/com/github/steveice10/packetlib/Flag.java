@@ -0,0 +1,133 @@
+package com.github.steveice10.packetlib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A typed key for a session or server flag.
+ *
+ * Flags created with {@link #of} are assigned a fixed slot index the first time their
+ * name is used, so flags sharing a name share their value, whether they are accessed
+ * through a typed key or through the string based flag methods. At most
+ * {@link #MAX_INDEXED_FLAGS} names get a slot. Any other name, including names only ever
+ * used through the string based methods, is stored by name instead, so building flag names
+ * at runtime does not grow every session's slots.
+ *
+ * @param <T> Type of the flag's value.
+ */
+public final class Flag<T> {
+    /**
+     * Maximum number of flag names assigned a slot index.
+     */
+    public static final int MAX_INDEXED_FLAGS = 256;
+
+    private static final Map<String, Integer> INDEXES = new ConcurrentHashMap<>();
+    private static final List<String> NAMES = new ArrayList<>();
+    private static final Map<String, Flag<Object>> UNTYPED = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Class<T> type;
+    private final T defaultValue;
+    private final int index;
+
+    private Flag(String name, Class<T> type, T defaultValue, int index) {
+        this.name = name;
+        this.type = type;
+        this.defaultValue = defaultValue;
+        this.index = index;
+    }
+
+    /**
+     * Creates a flag key without a default value.
+     *
+     * @param <T>  Type of the flag's value.
+     * @param name Name of the flag.
+     * @param type Type of the flag's value.
+     * @return The flag key.
+     */
+    public static <T> Flag<T> of(String name, Class<T> type) {
+        return of(name, type, null);
+    }
+
+    /**
+     * Creates a flag key. Flag keys are meant to be created once and kept in constants.
+     *
+     * @param <T>          Type of the flag's value.
+     * @param name         Name of the flag.
+     * @param type         Type of the flag's value.
+     * @param defaultValue Value used when the flag is not set.
+     * @return The flag key.
+     */
+    public static <T> Flag<T> of(String name, Class<T> type, T defaultValue) {
+        return new Flag<>(name, type, defaultValue, register(name));
+    }
+
+    /**
+     * Gets an untyped key for a flag name, as used by the string based flag methods.
+     *
+     * @param name Name of the flag.
+     * @return The flag key.
+     */
+    public static Flag<Object> named(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            // Not cached, names without a slot may be created without bound.
+            return new Flag<>(name, Object.class, null, -1);
+        }
+
+        return UNTYPED.computeIfAbsent(name, key -> new Flag<>(key, Object.class, null, index));
+    }
+
+    /**
+     * Gets the slot index of a flag name.
+     *
+     * @param name Name of the flag.
+     * @return The slot index, or -1 if the name has no slot.
+     */
+    static int indexOf(String name) {
+        Integer index = INDEXES.get(name);
+        return index != null ? index : -1;
+    }
+
+    static synchronized String nameOf(int index) {
+        return NAMES.get(index);
+    }
+
+    private static synchronized int register(String name) {
+        Integer index = INDEXES.get(name);
+        if (index != null) {
+            return index;
+        }
+
+        if (NAMES.size() >= MAX_INDEXED_FLAGS) {
+            return -1;
+        }
+
+        NAMES.add(name);
+        INDEXES.put(name, NAMES.size() - 1);
+        return NAMES.size() - 1;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Class<T> getType() {
+        return this.type;
+    }
+
+    public T getDefaultValue() {
+        return this.defaultValue;
+    }
+
+    int index() {
+        return this.index;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
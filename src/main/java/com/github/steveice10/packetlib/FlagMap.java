@@ -0,0 +1,234 @@
+package com.github.steveice10.packetlib;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flag values stored in slots indexed by {@link Flag}, and by name for flags without a slot.
+ *
+ * Reads are lock-free and allocation-free and see values published by any thread.
+ * Writes are serialized. Lookups for flags that are not set fall through to the
+ * parent map, such as a server's flags for its sessions. The parent's slots are resolved
+ * once into a copy held by this map, and only resolved again after a map in the parent
+ * chain changed. Setting a flag to null unsets it.
+ */
+public final class FlagMap {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final FlagMap parent;
+    private volatile Object[] slots = new Object[0];
+    private volatile Map<String, Object> named;
+    private volatile long version;
+    private volatile Snapshot snapshot;
+    private volatile Inherited inherited;
+
+    public FlagMap() {
+        this(null);
+    }
+
+    public FlagMap(@Nullable FlagMap parent) {
+        this.parent = parent;
+    }
+
+    public boolean has(Flag<?> flag) {
+        return this.lookup(flag.index(), flag.getName()) != null;
+    }
+
+    public boolean has(String name) {
+        return this.lookup(Flag.indexOf(name), name) != null;
+    }
+
+    public <T> T get(Flag<T> flag) {
+        return this.get(flag, flag.getDefaultValue());
+    }
+
+    public <T> T get(Flag<T> flag, T def) {
+        Object value = this.lookup(flag.index(), flag.getName());
+        if (value == null) {
+            return def;
+        }
+
+        try {
+            return flag.getType().cast(value);
+        } catch (ClassCastException e) {
+            throw new IllegalStateException("Tried to get flag \"" + flag.getName() + "\" as the wrong type. Actual type: " + value.getClass().getName());
+        }
+    }
+
+    public Object get(String name, Object def) {
+        Object value = this.lookup(Flag.indexOf(name), name);
+        return value != null ? value : def;
+    }
+
+    public <T> void set(Flag<T> flag, @Nullable T value) {
+        if (value != null && !flag.getType().isInstance(value)) {
+            throw new IllegalArgumentException("Tried to set flag \"" + flag.getName() + "\" to the wrong type. Expected type: " + flag.getType().getName());
+        }
+
+        this.set(flag.index(), flag.getName(), value);
+    }
+
+    public void set(String name, @Nullable Object value) {
+        this.set(Flag.indexOf(name), name, value);
+    }
+
+    private synchronized void set(int index, String name, @Nullable Object value) {
+        Map<String, Object> named = this.named;
+        if (index >= 0) {
+            Object[] slots = this.slots;
+            if (index >= slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(index + 1, slots.length * 2));
+                this.slots = slots;
+            }
+
+            SLOTS.setRelease(slots, index, value);
+            if (named != null) {
+                // Set by name before the name got a slot.
+                named.remove(name);
+            }
+        } else if (value != null) {
+            if (named == null) {
+                named = new ConcurrentHashMap<>();
+                this.named = named;
+            }
+
+            named.put(name, value);
+        } else if (named != null) {
+            named.remove(name);
+        }
+
+        // Taken from one sequence, so the newest version in a parent chain shows any change.
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Copies the flags set in this map, excluding the parent's.
+     *
+     * @return The flags by name.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        Map<String, Object> named = this.named;
+        if (named != null) {
+            map.putAll(named);
+        }
+
+        Object[] slots = this.slots;
+        for (int i = 0; i < slots.length; i++) {
+            Object value = SLOTS.getAcquire(slots, i);
+            if (value != null) {
+                map.put(Flag.nameOf(i), value);
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Gets the flags set in this map merged over the parent's. The result is cached
+     * until either map changes.
+     *
+     * @return An unmodifiable view of the flags by name.
+     */
+    public Map<String, Object> snapshot() {
+        long version = this.version;
+        Map<String, Object> parent = this.parent != null ? this.parent.snapshot() : null;
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.version == version && snapshot.parent == parent) {
+            return snapshot.flags;
+        }
+
+        Map<String, Object> flags = parent != null ? new HashMap<>(parent) : new HashMap<>();
+        flags.putAll(this.toMap());
+        snapshot = new Snapshot(version, parent, Collections.unmodifiableMap(flags));
+        this.snapshot = snapshot;
+        return snapshot.flags;
+    }
+
+    private Object lookup(int index, String name) {
+        Object value = null;
+        if (index >= 0) {
+            Object[] slots = this.slots;
+            value = index < slots.length ? SLOTS.getAcquire(slots, index) : null;
+        }
+
+        if (value == null) {
+            Map<String, Object> named = this.named;
+            if (named != null) {
+                value = named.get(name);
+            }
+        }
+
+        if (value == null && this.parent != null) {
+            if (index < 0) {
+                return this.parent.lookup(index, name);
+            }
+
+            value = this.inherited(index);
+            if (value == null) {
+                // Set by name in a parent before the name got a slot.
+                value = this.parent.lookupNamed(name);
+            }
+        }
+
+        return value;
+    }
+
+    private Object lookupNamed(String name) {
+        Map<String, Object> named = this.named;
+        Object value = named != null ? named.get(name) : null;
+        if (value == null && this.parent != null) {
+            return this.parent.lookupNamed(name);
+        }
+
+        return value;
+    }
+
+    private Object inherited(int index) {
+        long version = this.parent.latestVersion();
+        Inherited inherited = this.inherited;
+        if (inherited == null || inherited.version != version) {
+            // Resolved after reading the version, so a change racing with this is picked up next time.
+            inherited = new Inherited(version, this.parent.resolveSlots());
+            this.inherited = inherited;
+        }
+
+        return index < inherited.values.length ? inherited.values[index] : null;
+    }
+
+    private long latestVersion() {
+        long version = this.version;
+        return this.parent != null ? Math.max(version, this.parent.latestVersion()) : version;
+    }
+
+    /**
+     * Copies the slots of this map merged over its parent's.
+     */
+    private Object[] resolveSlots() {
+        Object[] slots = this.slots;
+        Object[] resolved = this.parent != null ? this.parent.resolveSlots() : new Object[0];
+        resolved = Arrays.copyOf(resolved, Math.max(resolved.length, slots.length));
+        for (int i = 0; i < slots.length; i++) {
+            Object value = SLOTS.getAcquire(slots, i);
+            if (value != null) {
+                resolved[i] = value;
+            }
+        }
+
+        return resolved;
+    }
+
+    private record Inherited(long version, Object[] values) {
+    }
+
+    private record Snapshot(long version, Map<String, Object> parent, Map<String, Object> flags) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.steveice10.packetlib;
+
+/**
+ * What a session does with non-priority packets sent while its connection is not writable.
+ */
+public enum OutboundPolicy {
+    /**
+     * Queue the packets behind the data already waiting to be written.
+     */
+    QUEUE,
+    /**
+     * Drop the packets.
+     */
+    DROP,
+    /**
+     * Hold on to the most recent packet of each class and send those once the
+     * connection is writable again.
+     */
+    CONFLATE
+}
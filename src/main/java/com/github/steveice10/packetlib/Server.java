@@ -86,6 +86,47 @@ public interface Server {
      */
     void setGlobalFlag(String key, Object value);
 
+    /**
+     * Checks whether this server has a flag set.
+     *
+     * @param flag Flag to check for.
+     * @return Whether this server has a flag set.
+     */
+    boolean hasGlobalFlag(Flag<?> flag);
+
+    /**
+     * Gets the value of the given flag. If the flag is not set, the flag's default
+     * value will be returned.
+     *
+     * @param <T>  Type of the flag.
+     * @param flag Flag to get.
+     * @return Value of the flag.
+     * @throws IllegalStateException If the flag's value isn't of the flag's type.
+     */
+    <T> T getGlobalFlag(Flag<T> flag);
+
+    /**
+     * Gets the value of the given flag. If the flag is not set, the specified default
+     * value will be returned.
+     *
+     * @param <T>  Type of the flag.
+     * @param flag Flag to get.
+     * @param def  Default value of the flag.
+     * @return Value of the flag.
+     * @throws IllegalStateException If the flag's value isn't of the flag's type.
+     */
+    <T> T getGlobalFlag(Flag<T> flag, T def);
+
+    /**
+     * Sets the value of a flag. The flag will be used in sessions if a session does
+     * not contain a value for the flag.
+     *
+     * @param <T>   Type of the flag.
+     * @param flag  Flag to set.
+     * @param value Value to set the flag to, or null to unset it.
+     */
+    <T> void setGlobalFlag(Flag<T> flag, T value);
+
     /**
      * Gets the listeners listening on this session.
      *
@@ -142,14 +183,16 @@ public interface Server {
     /**
      * Closes the listener.
      *
-     * @param wait Whether to wait for the listener to finish closing.
+     * @param wait Whether to wait for the listener to finish closing. Ignored on a Netty
+     *             event loop thread, where waiting could block the loop on itself.
      */
     void close(boolean wait);
 
     /**
      * Closes the listener.
      *
-     * @param wait     Whether to wait for the listener to finish closing.
+     * @param wait     Whether to wait for the listener to finish closing. Ignored on a Netty
+     *                 event loop thread, where waiting could block the loop on itself.
      * @param callback Callback to call when the listener has finished closing.
      */
     void close(boolean wait, Runnable callback);
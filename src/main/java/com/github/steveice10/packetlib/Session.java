@@ -4,6 +4,7 @@ import com.github.steveice10.packetlib.event.session.SessionEvent;
 import com.github.steveice10.packetlib.event.session.SessionListener;
 import com.github.steveice10.packetlib.packet.Packet;
 import com.github.steveice10.packetlib.packet.PacketProtocol;
+import io.netty.util.concurrent.Future;
 
 import javax.crypto.SecretKey;
 import java.net.SocketAddress;
@@ -112,6 +113,50 @@ public interface Session {
      */
     public void setFlag(String key, Object value);
 
+    /**
+     * Checks whether this session has a flag set. If this session belongs to a server,
+     * the server's flags will also be checked.
+     *
+     * @param flag Flag to check for.
+     * @return Whether this session has a flag set.
+     */
+    public boolean hasFlag(Flag<?> flag);
+
+    /**
+     * Gets the value of the given flag. If this session belongs to a server, the
+     * server's flags will be checked for the flag as well. If the flag is not set,
+     * the flag's default value will be returned.
+     *
+     * @param <T>  Type of the flag.
+     * @param flag Flag to get.
+     * @return Value of the flag.
+     * @throws IllegalStateException If the flag's value isn't of the flag's type.
+     */
+    public <T> T getFlag(Flag<T> flag);
+
+    /**
+     * Gets the value of the given flag. If this session belongs to a server, the
+     * server's flags will be checked for the flag as well. If the flag is not set,
+     * the specified default value will be returned.
+     *
+     * @param <T>  Type of the flag.
+     * @param flag Flag to get.
+     * @param def  Default value of the flag.
+     * @return Value of the flag.
+     * @throws IllegalStateException If the flag's value isn't of the flag's type.
+     */
+    public <T> T getFlag(Flag<T> flag, T def);
+
+    /**
+     * Sets the value of a flag. This does not change a server's flags if this session
+     * belongs to a server.
+     *
+     * @param <T>   Type of the flag.
+     * @param flag  Flag to set.
+     * @param value Value to set the flag to, or null to unset it.
+     */
+    public <T> void setFlag(Flag<T> flag, T value);
+
     /**
      * Gets the listeners listening on this session.
      *
@@ -147,6 +192,13 @@ public interface Session {
      */
     void callPacketReceived(Packet packet);
 
+    /**
+     * Notifies all listeners that a batch of packets was just received.
+     *
+     * @param packets Packets to notify, in the order they were received.
+     */
+    void callPacketsReceived(List<Packet> packets);
+
     /**
      * Notifies all listeners that a packet was just sent.
      *
@@ -163,6 +215,8 @@ public interface Session {
 
     /**
      * Sets the compression packet length threshold for this session (-1 = disabled).
+     * Packets sent before this call are still written uncompressed or with the previous
+     * threshold, so the change may be applied after the call returns.
      *
      * @param threshold The new compression threshold.
      * @param validateDecompression whether to validate that the decompression fits within size checks.
@@ -170,7 +224,8 @@ public interface Session {
     void setCompressionThreshold(int threshold, boolean validateDecompression);
 
     /**
-     * Enables encryption for this session.
+     * Enables encryption for this session. Packets sent before this call are still
+     * written unencrypted, so encryption may be enabled after the call returns.
      *
      * @param key the secret key to encrypt with
      */
@@ -233,7 +288,8 @@ public interface Session {
     public void send(Packet packet);
 
     /**
-     * Sends a packet without calling listeners
+     * Sends a packet without calling listeners. Packets sent before it and still queued
+     * are written first.
      * @param packet Packet to send
      */
     public void sendDirect(Packet packet);
@@ -252,4 +308,21 @@ public interface Session {
      * @param cause  Throwable responsible for disconnecting.
      */
     public void disconnect(String reason, Throwable cause);
+
+    /**
+     * Disconnects the session without waiting for the connection to close.
+     *
+     * @param reason Reason for disconnecting.
+     * @return A future completed once the connection is closed and the disconnected event was called.
+     */
+    public Future<Void> disconnectAsync(String reason);
+
+    /**
+     * Disconnects the session without waiting for the connection to close.
+     *
+     * @param reason Reason for disconnecting.
+     * @param cause  Throwable responsible for disconnecting.
+     * @return A future completed once the connection is closed and the disconnected event was called.
+     */
+    public Future<Void> disconnectAsync(String reason, Throwable cause);
 }
@@ -0,0 +1,23 @@
+package com.github.steveice10.packetlib.event.session;
+
+import com.github.steveice10.packetlib.Session;
+import com.github.steveice10.packetlib.packet.Packet;
+
+import java.util.List;
+
+/**
+ * An optional interface for {@link SessionListener}s that want to receive packets in batches.
+ * Listeners implementing it receive {@link #packetsReceived(Session, List)} instead of
+ * {@link SessionListener#packetReceived(Session, Packet)}.
+ */
+public interface PacketBatchListener {
+    /**
+     * Called when a session receives packets. Non-priority packets decoded from a single
+     * read are delivered together, after the session's other listeners have received
+     * each of them. Priority packets are delivered on their own.
+     *
+     * @param session Session the packets were received on.
+     * @param packets The packets that were just received, in the order they were received.
+     */
+    void packetsReceived(Session session, List<Packet> packets);
+}
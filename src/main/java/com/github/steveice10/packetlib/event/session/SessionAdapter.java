@@ -23,6 +23,10 @@ public class SessionAdapter implements SessionListener {
     public void packetError(PacketErrorEvent event) {
     }
 
+    @Override
+    public void writabilityChanged(WritabilityChangedEvent event) {
+    }
+
     @Override
     public void connected(ConnectedEvent event) {
     }
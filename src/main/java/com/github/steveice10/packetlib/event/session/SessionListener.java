@@ -35,6 +35,14 @@ public interface SessionListener {
      */
     public void packetError(PacketErrorEvent event);
 
+    /**
+     * Called when a session's writability changes. Does nothing by default.
+     *
+     * @param event Data relating to the event.
+     */
+    public default void writabilityChanged(WritabilityChangedEvent event) {
+    }
+
     /**
      * Called when a session connects.
      *
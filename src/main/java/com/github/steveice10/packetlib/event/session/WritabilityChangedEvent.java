@@ -0,0 +1,48 @@
+package com.github.steveice10.packetlib.event.session;
+
+import com.github.steveice10.packetlib.Session;
+
+/**
+ * Called when the amount of data queued for writing on a session crosses its high
+ * or low water mark.
+ */
+public class WritabilityChangedEvent implements SessionEvent {
+    private Session session;
+    private boolean writable;
+
+    /**
+     * Creates a new WritabilityChangedEvent instance.
+     *
+     * @param session  Session whose writability changed.
+     * @param writable Whether the session is now writable.
+     */
+    public WritabilityChangedEvent(Session session, boolean writable) {
+        this.session = session;
+        this.writable = writable;
+    }
+
+    /**
+     * Gets the session involved in this event.
+     *
+     * @return The event's session.
+     */
+    public Session getSession() {
+        return this.session;
+    }
+
+    /**
+     * Gets whether the session is writable. A session stops being writable once its
+     * queued outbound data exceeds the high water mark, and becomes writable again once
+     * it drops below the low water mark.
+     *
+     * @return Whether the session is writable.
+     */
+    public boolean isWritable() {
+        return this.writable;
+    }
+
+    @Override
+    public void call(SessionListener listener) {
+        listener.writabilityChanged(this);
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.steveice10.packetlib.executor;
+
+import com.github.steveice10.packetlib.Session;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles packets on an {@link EventLoopGroup}, pinning every session to one of its event loops.
+ */
+public class EventLoopPacketHandlerExecutor implements PacketHandlerExecutor {
+    private static EventLoopPacketHandlerExecutor SHARED;
+
+    private final EventLoopGroup group;
+    private final boolean ownsGroup;
+
+    /**
+     * Creates an executor with the default number of threads.
+     */
+    public EventLoopPacketHandlerExecutor() {
+        this(new DefaultEventLoopGroup(), true);
+    }
+
+    /**
+     * Creates an executor with the given number of threads.
+     *
+     * @param threads Number of threads, or 0 for the default.
+     */
+    public EventLoopPacketHandlerExecutor(int threads) {
+        this(new DefaultEventLoopGroup(threads), true);
+    }
+
+    /**
+     * Creates an executor with the given number of threads.
+     *
+     * @param threads       Number of threads, or 0 for the default.
+     * @param threadFactory Factory to create the threads with.
+     */
+    public EventLoopPacketHandlerExecutor(int threads, ThreadFactory threadFactory) {
+        this(new DefaultEventLoopGroup(threads, threadFactory), true);
+    }
+
+    /**
+     * Creates an executor backed by an existing event loop group. The group is not
+     * shut down by {@link #shutdown()}.
+     *
+     * @param group Event loop group to run packet handlers on.
+     */
+    public EventLoopPacketHandlerExecutor(EventLoopGroup group) {
+        this(group, false);
+    }
+
+    private EventLoopPacketHandlerExecutor(EventLoopGroup group, boolean ownsGroup) {
+        this.group = group;
+        this.ownsGroup = ownsGroup;
+    }
+
+    /**
+     * Gets the executor used by sessions that have not been given one explicitly.
+     *
+     * @return The shared executor.
+     */
+    public static synchronized EventLoopPacketHandlerExecutor shared() {
+        if (SHARED == null) {
+            SHARED = new EventLoopPacketHandlerExecutor();
+        }
+
+        return SHARED;
+    }
+
+    public EventLoopGroup getGroup() {
+        return this.group;
+    }
+
+    @Override
+    public SessionExecutor createSessionExecutor(Session session) {
+        return new EventLoopSessionExecutor(this.group.next());
+    }
+
+    @Override
+    public Executor getParallelExecutor() {
+        return this.group;
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.ownsGroup) {
+            this.group.shutdownGracefully();
+        }
+    }
+
+    private static class EventLoopSessionExecutor implements SessionExecutor {
+        private final EventLoop eventLoop;
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private EventLoopSessionExecutor(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            this.pending.incrementAndGet();
+            try {
+                this.eventLoop.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        this.pending.decrementAndGet();
+                    }
+                });
+            } catch (RuntimeException e) {
+                this.pending.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getPendingTasks() {
+            return this.pending.get();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
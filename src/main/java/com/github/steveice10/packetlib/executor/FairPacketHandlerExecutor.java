@@ -0,0 +1,186 @@
+package com.github.steveice10.packetlib.executor;
+
+import com.github.steveice10.packetlib.Session;
+import io.netty.util.NettyRuntime;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles packets on a pool of threads that serves sessions round-robin.
+ * Each session runs at most a fixed number of tasks per turn before the next
+ * session with pending work gets a turn, so a flooding session cannot starve
+ * the others. Tasks of the same session still run one at a time and in order.
+ */
+public class FairPacketHandlerExecutor implements PacketHandlerExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FairPacketHandlerExecutor.class);
+    private static final int DEFAULT_BUDGET = 32;
+
+    private final BlockingQueue<Runnable> runQueue = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final int budget;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a fair executor with the default number of threads and per-turn budget.
+     */
+    public FairPacketHandlerExecutor() {
+        this(0, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates a fair executor.
+     *
+     * @param threads Number of threads, or 0 for the default.
+     * @param budget  Maximum number of tasks a session may run per turn.
+     */
+    public FairPacketHandlerExecutor(int threads, int budget) {
+        this(threads, budget, new DefaultThreadFactory("PacketLib-Handler"));
+    }
+
+    /**
+     * Creates a fair executor.
+     *
+     * @param threads       Number of threads, or 0 for the default.
+     * @param budget        Maximum number of tasks a session may run per turn.
+     * @param threadFactory Factory to create the threads with.
+     */
+    public FairPacketHandlerExecutor(int threads, int budget, ThreadFactory threadFactory) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + budget);
+        }
+
+        this.budget = budget;
+        int count = threads > 0 ? threads : NettyRuntime.availableProcessors() * 2;
+        for (int i = 0; i < count; i++) {
+            Thread thread = threadFactory.newThread(this::work);
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Gets the number of sessions and unordered tasks currently waiting for a turn.
+     *
+     * @return The number of waiting turns.
+     */
+    public int getWaitingSessions() {
+        return this.runQueue.size();
+    }
+
+    @Override
+    public SessionExecutor createSessionExecutor(Session session) {
+        return new FairSessionExecutor();
+    }
+
+    @Override
+    public Executor getParallelExecutor() {
+        // Unordered tasks take a turn of their own in the run queue.
+        return task -> {
+            if (this.shutdown) {
+                throw new RejectedExecutionException("Packet handler executor has been shut down.");
+            }
+
+            this.runQueue.add(task);
+        };
+    }
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+    }
+
+    private void work() {
+        while (!this.shutdown) {
+            Runnable turn;
+            try {
+                turn = this.runQueue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            try {
+                turn.run();
+            } catch (Throwable t) {
+                LOGGER.error("Packet handler task threw an exception.", t);
+            }
+        }
+    }
+
+    private class FairSessionExecutor implements SessionExecutor, Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        @Override
+        public void execute(Runnable task) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Packet handler executor has been shut down.");
+            }
+
+            this.pending.incrementAndGet();
+            this.tasks.add(task);
+            this.schedule();
+        }
+
+        @Override
+        public int getPendingTasks() {
+            return this.pending.get();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                runQueue.add(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < budget; i++) {
+                Runnable task = this.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    LOGGER.error("Packet handler task threw an exception.", t);
+                } finally {
+                    this.pending.decrementAndGet();
+                }
+            }
+
+            if (!this.tasks.isEmpty()) {
+                // Budget used up, go to the back of the line.
+                runQueue.add(this);
+                return;
+            }
+
+            this.scheduled.set(false);
+            if (!this.tasks.isEmpty()) {
+                // A task was added after the queue was found empty.
+                this.schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.steveice10.packetlib.executor;
+
+import com.github.steveice10.packetlib.Session;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Provides the executors that sessions hand non-priority packets to.
+ * A single instance may be shared between several servers and clients, or each
+ * of them may be given its own to keep their handler threads isolated.
+ */
+public interface PacketHandlerExecutor {
+    /**
+     * Creates the executor used to handle packets received by the given session.
+     * Tasks submitted to the returned executor must run one at a time and in the
+     * order they were submitted.
+     *
+     * @param session Session to create the executor for.
+     * @return The session's executor.
+     */
+    SessionExecutor createSessionExecutor(Session session);
+
+    /**
+     * Gets the executor that packets on the {@link com.github.steveice10.packetlib.packet.PacketLane#PARALLEL}
+     * lane are handled on. Tasks submitted to it may run concurrently and in any order.
+     *
+     * @return The parallel executor.
+     */
+    Executor getParallelExecutor();
+
+    /**
+     * Shuts down any threads owned by this executor.
+     */
+    void shutdown();
+}
@@ -0,0 +1,21 @@
+package com.github.steveice10.packetlib.executor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the packet handling tasks of a single session in submission order.
+ */
+public interface SessionExecutor extends Executor {
+    /**
+     * Gets the number of tasks submitted to this executor that have not finished yet.
+     *
+     * @return The number of pending tasks.
+     */
+    int getPendingTasks();
+
+    /**
+     * Called once the owning session has disconnected. Tasks that were already
+     * submitted are still run.
+     */
+    void close();
+}
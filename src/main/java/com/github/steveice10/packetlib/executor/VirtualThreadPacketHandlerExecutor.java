@@ -0,0 +1,145 @@
+package com.github.steveice10.packetlib.executor;
+
+import com.github.steveice10.packetlib.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles the packets of every session in order on a dedicated virtual thread,
+ * so that handlers may block without holding up other sessions.
+ * Virtual threads require Java 21 or newer, see {@link #isSupported()}.
+ */
+public class VirtualThreadPacketHandlerExecutor implements PacketHandlerExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadPacketHandlerExecutor.class);
+    private static final Runnable CLOSE = () -> {
+    };
+
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Creates a virtual thread executor.
+     *
+     * @throws UnsupportedOperationException If the running JVM does not support virtual threads.
+     */
+    public VirtualThreadPacketHandlerExecutor() {
+        this("PacketLib-Handler-");
+    }
+
+    /**
+     * Creates a virtual thread executor.
+     *
+     * @param namePrefix Prefix of the names given to the created threads.
+     * @throws UnsupportedOperationException If the running JVM does not support virtual threads.
+     */
+    public VirtualThreadPacketHandlerExecutor(String namePrefix) {
+        this.threadFactory = createThreadFactory(namePrefix);
+    }
+
+    /**
+     * Checks whether the running JVM supports virtual threads. Java 19 and 20 only offer
+     * them as a preview feature and are treated as unsupported.
+     *
+     * @return Whether virtual threads are supported.
+     */
+    public static boolean isSupported() {
+        if (Runtime.version().feature() < 21) {
+            return false;
+        }
+
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public SessionExecutor createSessionExecutor(Session session) {
+        return new VirtualThreadSessionExecutor(this.threadFactory);
+    }
+
+    @Override
+    public Executor getParallelExecutor() {
+        return task -> this.threadFactory.newThread(task).start();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    private static ThreadFactory createThreadFactory(String namePrefix) {
+        // Looked up reflectively as we still compile against Java 17.
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.", e);
+        }
+    }
+
+    private static class VirtualThreadSessionExecutor implements SessionExecutor {
+        private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean closed;
+
+        private VirtualThreadSessionExecutor(ThreadFactory threadFactory) {
+            threadFactory.newThread(this::run).start();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (this.closed) {
+                throw new RejectedExecutionException("Session executor has been closed.");
+            }
+
+            this.pending.incrementAndGet();
+            this.tasks.add(task);
+        }
+
+        @Override
+        public int getPendingTasks() {
+            return this.pending.get();
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.tasks.add(CLOSE);
+            }
+        }
+
+        private void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = this.tasks.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (task == CLOSE) {
+                    return;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    LOGGER.error("Packet handler task threw an exception.", t);
+                } finally {
+                    this.pending.decrementAndGet();
+                }
+            }
+        }
+    }
+}
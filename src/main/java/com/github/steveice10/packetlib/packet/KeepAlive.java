@@ -0,0 +1,25 @@
+package com.github.steveice10.packetlib.packet;
+
+/**
+ * Creates the ping packets a session sends to keep its connection alive and recognizes
+ * the responses, so the session can measure its round-trip time.
+ *
+ * @see com.github.steveice10.packetlib.tcp.TcpSession#setKeepAlive(KeepAlive, long, java.util.concurrent.TimeUnit)
+ */
+public interface KeepAlive {
+    /**
+     * Creates a ping packet carrying the given id.
+     *
+     * @param id Id of the ping, never negative.
+     * @return The packet to send.
+     */
+    Packet createPing(long id);
+
+    /**
+     * Gets the id of the ping a received packet responds to.
+     *
+     * @param packet The received packet.
+     * @return The id of the answered ping, or -1 if the packet is not a response.
+     */
+    long getPongId(Packet packet);
+}
@@ -0,0 +1,22 @@
+package com.github.steveice10.packetlib.packet;
+
+/**
+ * The scheduling class of a packet being sent. Packets of a higher class overtake
+ * queued packets of lower classes that have not been written yet.
+ *
+ * @see PacketProtocol#setOutboundPriority(Class, OutboundPriority)
+ */
+public enum OutboundPriority {
+    /**
+     * Latency-sensitive packets, such as keep-alives and chat.
+     */
+    LATENCY,
+    /**
+     * Regular packets.
+     */
+    NORMAL,
+    /**
+     * Large transfers that may be delayed in favor of other packets, such as world data.
+     */
+    BULK
+}
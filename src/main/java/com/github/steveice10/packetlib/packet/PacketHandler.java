@@ -0,0 +1,20 @@
+package com.github.steveice10.packetlib.packet;
+
+import com.github.steveice10.packetlib.Session;
+
+/**
+ * Handles received packets of a single type.
+ *
+ * @param <T> the packet type
+ * @see PacketProtocol#registerHandler(Class, PacketHandler)
+ */
+@FunctionalInterface
+public interface PacketHandler<T extends Packet> {
+    /**
+     * Handles a packet received by the given session.
+     *
+     * @param session the session that received the packet
+     * @param packet  the received packet
+     */
+    void handle(Session session, T packet);
+}
@@ -0,0 +1,22 @@
+package com.github.steveice10.packetlib.packet;
+
+/**
+ * Where a received packet is handled.
+ *
+ * @see PacketProtocol#setLane(Class, PacketLane)
+ */
+public enum PacketLane {
+    /**
+     * Handled immediately on the network thread that decoded the packet.
+     */
+    INLINE,
+    /**
+     * Handled on the session's packet handler executor, in the order packets were received.
+     */
+    ORDERED,
+    /**
+     * Handled on a shared pool without any ordering guarantees. Meant for stateless
+     * packets that can be handled concurrently with the rest of the session's packets.
+     */
+    PARALLEL
+}
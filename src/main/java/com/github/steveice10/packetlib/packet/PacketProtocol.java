@@ -3,22 +3,46 @@ package com.github.steveice10.packetlib.packet;
 import com.github.steveice10.packetlib.Server;
 import com.github.steveice10.packetlib.Session;
 import com.github.steveice10.packetlib.io.NetInput;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * A protocol for packet sending and receiving.
  * All implementations must have a constructor that takes in a {@link NetInput}.
  */
 public abstract class PacketProtocol {
-    private final Map<Integer, PacketDefinition<? extends Packet>> serverbound = new Int2ObjectOpenHashMap<>();
-    private final Map<Integer, PacketDefinition<? extends Packet>> clientbound = new Int2ObjectOpenHashMap<>();
+    private static final Integer[] NO_MAX_SIZES = new Integer[0];
 
-    private final Map<Class<? extends Packet>, Integer> clientboundIds = new Object2IntOpenHashMap<>();
-    private final Map<Class<? extends Packet>, Integer> serverboundIds = new Object2IntOpenHashMap<>();
+    private final Int2ObjectMap<PacketDefinition<? extends Packet>> serverbound = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectMap<PacketDefinition<? extends Packet>> clientbound = new Int2ObjectOpenHashMap<>();
+
+    private final Object2IntMap<Class<? extends Packet>> clientboundIds = new Object2IntOpenHashMap<>();
+    private final Object2IntMap<Class<? extends Packet>> serverboundIds = new Object2IntOpenHashMap<>();
+
+    private final Map<Class<? extends Packet>, PacketHandler<Packet>> handlers = new ConcurrentHashMap<>();
+
+    private final Map<Class<? extends Packet>, PacketLane> lanes = new ConcurrentHashMap<>();
+
+    private final Map<Class<? extends Packet>, Integer> maxSizes = new HashMap<>();
+    private volatile Integer[] clientboundMaxSizes = NO_MAX_SIZES;
+    private volatile Integer[] serverboundMaxSizes = NO_MAX_SIZES;
+
+    private final Map<Class<? extends Packet>, Function<Packet, ?>> conflationKeys = new ConcurrentHashMap<>();
+    private final Map<Class<? extends Packet>, OutboundPriority> outboundPriorities = new ConcurrentHashMap<>();
+
+    public PacketProtocol() {
+        this.clientboundIds.defaultReturnValue(-1);
+        this.serverboundIds.defaultReturnValue(-1);
+    }
 
     /**
      * Gets the prefix used when locating SRV records for this protocol.
@@ -49,14 +73,29 @@ public abstract class PacketProtocol {
      */
     public abstract void newServerSession(Server server, Session session);
 
+    /**
+     * Gets the maximum length of a received frame, checked as soon as its length prefix
+     * is read. Protocols with connection states can override this to apply a different
+     * limit in each state.
+     *
+     * @return The maximum frame length in bytes, or -1 for no limit.
+     */
+    public int getMaxFrameSize() {
+        return -1;
+    }
+
     /**
      * Clears all currently registered packets.
      */
-    public final void clearPackets() {
+    public final synchronized void clearPackets() {
         this.serverbound.clear();
         this.clientbound.clear();
         this.clientboundIds.clear();
         this.serverboundIds.clear();
+        this.clientboundLanes = NO_LANES;
+        this.serverboundLanes = NO_LANES;
+        this.clientboundMaxSizes = NO_MAX_SIZES;
+        this.serverboundMaxSizes = NO_MAX_SIZES;
     }
 
     /**
@@ -100,9 +139,10 @@ public abstract class PacketProtocol {
      *
      * @param definition The packet definition.
      */
-    public final void registerServerbound(PacketDefinition<? extends Packet> definition) {
+    public final synchronized void registerServerbound(PacketDefinition<? extends Packet> definition) {
         this.serverbound.put(definition.getId(), definition);
         this.serverboundIds.put(definition.getPacketClass(), definition.getId());
+        this.serverboundMaxSizes = withEntry(this.serverboundMaxSizes, definition.getId(), this.maxSizes.get(definition.getPacketClass()));
     }
 
     /**
@@ -121,9 +161,114 @@ public abstract class PacketProtocol {
      *
      * @param definition The packet definition.
      */
-    public final void registerClientbound(PacketDefinition<? extends Packet> definition) {
+    public final synchronized void registerClientbound(PacketDefinition<? extends Packet> definition) {
         this.clientbound.put(definition.getId(), definition);
         this.clientboundIds.put(definition.getPacketClass(), definition.getId());
+        this.clientboundMaxSizes = withEntry(this.clientboundMaxSizes, definition.getId(), this.maxSizes.get(definition.getPacketClass()));
+    }
+
+    /**
+     * Registers a handler for received packets of the given class. Handlers are looked
+     * up by class, so they are kept when packets are cleared and re-registered under
+     * different ids. Registering several handlers for the same class calls them in
+     * registration order.
+     *
+     * @param packetClass Class of the packets to handle.
+     * @param handler     The packet handler.
+     */
+    @SuppressWarnings("unchecked")
+    public final synchronized <T extends Packet> void registerHandler(Class<T> packetClass, PacketHandler<? super T> handler) {
+        PacketHandler<Packet> added = (session, packet) -> handler.handle(session, (T) packet);
+        this.handlers.merge(packetClass, added, (existing, next) -> (session, packet) -> {
+            existing.handle(session, packet);
+            next.handle(session, packet);
+        });
+    }
+
+    /**
+     * Gets the handler registered for a received packet. Handlers are registered by class,
+     * so the lookup is the same in either direction.
+     *
+     * @param packet The received packet.
+     * @return The packet's handler, or null if none is registered.
+     */
+    public PacketHandler<Packet> getHandler(Packet packet) {
+        return this.handlers.get(packetClass(packet));
+    }
+
+    /**
+     * Sets the lane that received packets of the given class are handled on. Packets
+     * without a lane are handled {@link PacketLane#INLINE} if they have priority and
+     * {@link PacketLane#ORDERED} otherwise.
+     *
+     * @param packetClass Class of the packets.
+     * @param lane        The lane to handle the packets on, or null to use the default.
+     */
+    public final void setLane(Class<? extends Packet> packetClass, PacketLane lane) {
+        if (lane != null) {
+            this.lanes.put(packetClass, lane);
+        } else {
+            this.lanes.remove(packetClass);
+        }
+    }
+
+    /**
+     * Gets the lane set for a received packet. Lanes are set by class like handlers, so
+     * the lookup is the same in either direction.
+     *
+     * @param packet The received packet.
+     * @return The packet's lane, or null if none is set.
+     */
+    public PacketLane getLane(Packet packet) {
+        return this.lanes.get(packetClass(packet));
+    }
+
+    /**
+     * Sets the maximum size of received packets of the given class, checked against the
+     * packet's body right after its id is read.
+     *
+     * @param packetClass Class of the packets.
+     * @param maxSize     Maximum body size in bytes, or a negative value to remove the limit.
+     */
+    public final synchronized void setMaxPacketSize(Class<? extends Packet> packetClass, int maxSize) {
+        Integer entry = maxSize >= 0 ? maxSize : null;
+        if (entry != null) {
+            this.maxSizes.put(packetClass, entry);
+        } else {
+            this.maxSizes.remove(packetClass);
+        }
+
+        int clientboundId = this.clientboundIds.getInt(packetClass);
+        if (clientboundId != -1) {
+            this.clientboundMaxSizes = withEntry(this.clientboundMaxSizes, clientboundId, entry);
+        }
+
+        int serverboundId = this.serverboundIds.getInt(packetClass);
+        if (serverboundId != -1) {
+            this.serverboundMaxSizes = withEntry(this.serverboundMaxSizes, serverboundId, entry);
+        }
+    }
+
+    /**
+     * Gets the maximum size of a received clientbound packet.
+     *
+     * @param id Id of the packet.
+     * @return The maximum body size in bytes, or -1 for no limit.
+     */
+    public int getClientboundMaxSize(int id) {
+        Integer maxSize = entryAt(this.clientboundMaxSizes, id);
+        return maxSize != null ? maxSize : -1;
+    }
+
+    /**
+     * Gets the maximum size of a received serverbound packet.
+     *
+     * @param id Id of the packet.
+     * @return The maximum body size in bytes, or -1 for no limit.
+     */
+    public int getServerboundMaxSize(int id) {
+        Integer maxSize = entryAt(this.serverboundMaxSizes, id);
+        return maxSize != null ? maxSize : -1;
     }
 
     /**
@@ -143,6 +288,16 @@ public abstract class PacketProtocol {
         return definition.getFactory().construct(in);
     }
 
+    /**
+     * Checks whether a clientbound packet is registered for an id.
+     *
+     * @param id Id of the packet.
+     * @return Whether a packet is registered for the id.
+     */
+    public boolean isClientboundRegistered(int id) {
+        return this.clientbound.containsKey(id);
+    }
+
     /**
      * Gets the registered id of a clientbound packet class.
      *
@@ -151,8 +306,8 @@ public abstract class PacketProtocol {
      * @throws IllegalArgumentException If the packet is not registered.
      */
     public int getClientboundId(Class<? extends Packet> packetClass) {
-        Integer packetId = this.clientboundIds.get(packetClass);
-        if(packetId == null) {
+        int packetId = this.clientboundIds.getInt(packetClass);
+        if(packetId == -1) {
             throw new IllegalArgumentException("Unregistered clientbound packet class: " + packetClass.getName());
         }
 
@@ -206,6 +361,16 @@ public abstract class PacketProtocol {
         return definition.getFactory().construct(in);
     }
 
+    /**
+     * Checks whether a serverbound packet is registered for an id.
+     *
+     * @param id Id of the packet.
+     * @return Whether a packet is registered for the id.
+     */
+    public boolean isServerboundRegistered(int id) {
+        return this.serverbound.containsKey(id);
+    }
+
     /**
      * Gets the registered id of a serverbound packet class.
      *
@@ -214,8 +379,8 @@ public abstract class PacketProtocol {
      * @throws IllegalArgumentException If the packet is not registered.
      */
     public int getServerboundId(Class<? extends Packet> packetClass) {
-        Integer packetId = this.serverboundIds.get(packetClass);
-        if(packetId == null) {
+        int packetId = this.serverboundIds.getInt(packetClass);
+        if(packetId == -1) {
             throw new IllegalArgumentException("Unregistered serverbound packet class: " + packetClass.getName());
         }
 
@@ -251,4 +416,81 @@ public abstract class PacketProtocol {
 
         return definition.getPacketClass();
     }
+
+    /**
+     * Declares packets of the given class as carrying replaceable state. On sessions with
+     * conflation enabled, a queued packet of this class that has not been written yet is
+     * replaced by a newer one with the same key.
+     *
+     * @param packetClass  Class of the packets.
+     * @param keyExtractor Extracts the key identifying the state a packet carries, such as an entity id.
+     *                     Packets with a null key replace each other by class alone.
+     */
+    @SuppressWarnings("unchecked")
+    public final <T extends Packet> void setConflationKey(Class<T> packetClass, Function<? super T, ?> keyExtractor) {
+        this.conflationKeys.put(packetClass, packet -> keyExtractor.apply((T) packet));
+    }
+
+    /**
+     * Removes the conflation key declared for the given packet class.
+     *
+     * @param packetClass Class of the packets.
+     */
+    public final void removeConflationKey(Class<? extends Packet> packetClass) {
+        this.conflationKeys.remove(packetClass);
+    }
+
+    /**
+     * Gets the conflation key extractor declared for a packet.
+     *
+     * @param packet The packet.
+     * @return The key extractor, or null if the packet cannot be conflated.
+     */
+    public Function<Packet, ?> getConflationKey(Packet packet) {
+        // Buffered packets are already serialized, so there is no state to extract a key from.
+        return this.conflationKeys.get(packet.getClass());
+    }
+
+    /**
+     * Sets the scheduling class of sent packets of the given class.
+     *
+     * @param packetClass Class of the packets.
+     * @param priority    The scheduling class, or null for {@link OutboundPriority#NORMAL}.
+     */
+    public final void setOutboundPriority(Class<? extends Packet> packetClass, OutboundPriority priority) {
+        if (priority != null) {
+            this.outboundPriorities.put(packetClass, priority);
+        } else {
+            this.outboundPriorities.remove(packetClass);
+        }
+    }
+
+    /**
+     * Gets the scheduling class of a packet being sent.
+     *
+     * @param packet The packet.
+     * @return The packet's scheduling class.
+     */
+    public OutboundPriority getOutboundPriority(Packet packet) {
+        return this.outboundPriorities.getOrDefault(packetClass(packet), OutboundPriority.NORMAL);
+    }
+
+    private static Class<? extends Packet> packetClass(Packet packet) {
+        return packet instanceof BufferedPacket ? ((BufferedPacket) packet).getPacketClass() : packet.getClass();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T entryAt(Object[] entries, int id) {
+        return id >= 0 && id < entries.length ? (T) entries[id] : null;
+    }
+
+    private static <T> T[] withEntry(T[] entries, int id, T entry) {
+        if (id < 0 || (entry == null && id >= entries.length)) {
+            return entries;
+        }
+
+        T[] updated = Arrays.copyOf(entries, Math.max(entries.length, id + 1));
+        updated[id] = entry;
+        return updated;
+    }
 }
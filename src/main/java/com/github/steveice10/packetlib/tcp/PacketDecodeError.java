@@ -0,0 +1,37 @@
+package com.github.steveice10.packetlib.tcp;
+
+/**
+ * Reasons incoming data can fail to decode.
+ *
+ * Malformed input is rejected with a stackless {@link PacketDecodeException} carrying a
+ * fixed message, so neither a stack trace nor a message is built for it.
+ */
+public enum PacketDecodeError {
+    FRAME_TOO_LONG("Length is too long."),
+    FRAME_TOO_LARGE("Frame is too large."),
+    BAD_COMPRESSED_SIZE("Badly compressed packet."),
+    UNKNOWN_PACKET_ID("Unknown packet id."),
+    PACKET_TOO_LARGE("Packet is too large."),
+    PACKET_NOT_FULLY_READ("Packet not fully read."),
+    MALFORMED_PACKET("Malformed packet.");
+
+    private final String message;
+
+    PacketDecodeError(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Creates an exception signalling this error. A new instance is returned every time,
+     * as a shared one would collect suppressed exceptions from every session it is thrown in.
+     *
+     * @return The exception.
+     */
+    public PacketDecodeException getException() {
+        return new PacketDecodeException(this, this.message);
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.steveice10.packetlib.tcp;
+
+import io.netty.handler.codec.DecoderException;
+
+/**
+ * A stackless exception signalling a {@link PacketDecodeError}, use
+ * {@link PacketDecodeError#getException()} to obtain one.
+ */
+public final class PacketDecodeException extends DecoderException {
+    private final PacketDecodeError error;
+
+    PacketDecodeException(PacketDecodeError error, String message) {
+        super(message);
+        this.error = error;
+    }
+
+    public PacketDecodeError getError() {
+        return this.error;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
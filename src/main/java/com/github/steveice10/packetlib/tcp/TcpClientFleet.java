@@ -0,0 +1,356 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.event.session.DisconnectedEvent;
+import com.github.steveice10.packetlib.event.session.SessionAdapter;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects and tracks large numbers of client sessions that share one event loop group,
+ * DNS resolver and buffer allocator.
+ *
+ * Connects are started one at a time at the configured rate, each interval varied by the
+ * configured jitter so reconnecting clients do not stay in lockstep. At most
+ * {@link #getMaxConnectsInFlight()} connects, including their address resolution and
+ * proxy handshake, are in progress at once. The rest wait in the order they were
+ * submitted.
+ */
+public class TcpClientFleet {
+    private static final int LATENCY_SAMPLES = 16384;
+
+    private final EventLoop scheduler;
+    private final Bootstrap bootstrap;
+    private final Queue<PendingConnect> pending = new ArrayDeque<>();
+    private final Set<TcpClientSession> sessions = ConcurrentHashMap.newKeySet();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long connects;
+    private long failedConnects;
+
+    private double connectRate = 100;
+    private double connectJitter = 0.1;
+    private int maxConnectsInFlight = 64;
+    private int connectsInFlight;
+    private long nextConnect;
+    private boolean dispatchScheduled;
+    private boolean closed;
+
+    /**
+     * Creates a fleet using the event loop group shared by all client sessions and the
+     * default pooled allocator.
+     */
+    public TcpClientFleet() {
+        this(TcpClientSession.getEventLoopGroup(), TcpClientSession.getChannelClass(), PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * Creates a fleet connecting its sessions through the given event loop group. The group
+     * is owned by the caller and not shut down when the fleet is closed.
+     *
+     * @param group        Event loop group to connect sessions with.
+     * @param channelClass Channel type matching the group.
+     * @param allocator    Allocator shared by the sessions' channels.
+     */
+    public TcpClientFleet(EventLoopGroup group, Class<? extends Channel> channelClass, ByteBufAllocator allocator) {
+        this.scheduler = group.next();
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(channelClass)
+                .option(ChannelOption.ALLOCATOR, allocator);
+    }
+
+    /**
+     * Gets the number of connects started per second.
+     *
+     * @return The connect rate, or 0 if connects are only limited by the in-flight cap.
+     */
+    public synchronized double getConnectRate() {
+        return this.connectRate;
+    }
+
+    /**
+     * Sets the number of connects started per second.
+     *
+     * @param connectsPerSecond Connect rate, or 0 to only limit connects by the in-flight cap.
+     */
+    public synchronized void setConnectRate(double connectsPerSecond) {
+        this.connectRate = Math.max(0, connectsPerSecond);
+    }
+
+    /**
+     * Gets how much the interval between connects varies.
+     *
+     * @return The jitter as a fraction of the interval.
+     */
+    public synchronized double getConnectJitter() {
+        return this.connectJitter;
+    }
+
+    /**
+     * Sets how much the interval between connects varies. Each interval is chosen at random
+     * within this fraction above or below the interval given by the connect rate.
+     *
+     * @param jitter Jitter as a fraction of the interval, between 0 and 1.
+     */
+    public synchronized void setConnectJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+
+        this.connectJitter = jitter;
+    }
+
+    /**
+     * Gets the number of connects that may be in progress at once.
+     *
+     * @return The in-flight connect cap.
+     */
+    public synchronized int getMaxConnectsInFlight() {
+        return this.maxConnectsInFlight;
+    }
+
+    /**
+     * Sets the number of connects that may be in progress at once.
+     *
+     * @param connects In-flight connect cap, at least 1.
+     */
+    public synchronized void setMaxConnectsInFlight(int connects) {
+        if (connects < 1) {
+            throw new IllegalArgumentException("At least one connect must be allowed in flight");
+        }
+
+        this.maxConnectsInFlight = connects;
+        this.scheduleDispatch();
+    }
+
+    /**
+     * Queues a session to be connected by this fleet. Once connected, the session is
+     * tracked by the fleet until it disconnects.
+     *
+     * @param session Session to connect.
+     * @return A future completed once the session is connected, or failed with the reason
+     *         connecting failed.
+     */
+    public Future<Void> connect(TcpClientSession session) {
+        Promise<Void> promise = this.scheduler.newPromise();
+        synchronized (this) {
+            if (this.closed) {
+                return promise.setFailure(new IllegalStateException("Fleet has been closed."));
+            }
+
+            this.pending.add(new PendingConnect(session, promise));
+            this.scheduleDispatch();
+        }
+
+        return promise;
+    }
+
+    /**
+     * Gets the sessions connected through this fleet that have not disconnected yet.
+     *
+     * @return This fleet's connected sessions.
+     */
+    public Set<TcpClientSession> getSessions() {
+        return Collections.unmodifiableSet(this.sessions);
+    }
+
+    /**
+     * Gets the number of sessions waiting for their connect to be started.
+     *
+     * @return The number of pending connects.
+     */
+    public synchronized int getPendingConnects() {
+        return this.pending.size();
+    }
+
+    /**
+     * Gets the number of connects currently in progress.
+     *
+     * @return The number of in-flight connects.
+     */
+    public synchronized int getConnectsInFlight() {
+        return this.connectsInFlight;
+    }
+
+    /**
+     * Gets the number of connects that succeeded.
+     *
+     * @return The number of successful connects.
+     */
+    public synchronized long getConnects() {
+        return this.connects;
+    }
+
+    /**
+     * Gets the number of connects that failed.
+     *
+     * @return The number of failed connects.
+     */
+    public synchronized long getFailedConnects() {
+        return this.failedConnects;
+    }
+
+    /**
+     * Gets a percentile of the time successful connects took, from being started until the
+     * session was connected, over the last 16384 connects.
+     *
+     * @param percentile Percentile to get, between 0 and 100.
+     * @param unit       Unit to return the latency in.
+     * @return The connect latency at the percentile, or -1 if no connect succeeded yet.
+     */
+    public long getConnectLatency(double percentile, TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        long[] samples;
+        synchronized (this) {
+            samples = Arrays.copyOf(this.latencies, (int) Math.min(this.connects, LATENCY_SAMPLES));
+        }
+
+        if (samples.length == 0) {
+            return -1;
+        }
+
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        return unit.convert(samples[Math.max(0, index)], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Fails all pending connects and disconnects every session of this fleet. Connects
+     * already in flight are disconnected once they complete.
+     *
+     * @param reason Reason to disconnect the sessions with.
+     */
+    public void close(String reason) {
+        List<PendingConnect> cancelled;
+        synchronized (this) {
+            this.closed = true;
+            cancelled = new ArrayList<>(this.pending);
+            this.pending.clear();
+        }
+
+        for (PendingConnect connect : cancelled) {
+            connect.promise.tryFailure(new IllegalStateException("Fleet has been closed."));
+        }
+
+        for (TcpClientSession session : this.sessions) {
+            session.disconnectAsync(reason);
+        }
+    }
+
+    private void scheduleDispatch() {
+        if (this.dispatchScheduled || this.closed || this.pending.isEmpty() || this.connectsInFlight >= this.maxConnectsInFlight) {
+            return;
+        }
+
+        this.dispatchScheduled = true;
+        long delay = this.nextConnect - System.nanoTime();
+        if (delay > 0) {
+            this.scheduler.schedule(this::dispatch, delay, TimeUnit.NANOSECONDS);
+        } else {
+            this.scheduler.execute(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        PendingConnect connect;
+        synchronized (this) {
+            this.dispatchScheduled = false;
+            if (this.closed || this.connectsInFlight >= this.maxConnectsInFlight) {
+                return;
+            }
+
+            connect = this.pending.poll();
+            if (connect == null) {
+                return;
+            }
+
+            this.connectsInFlight++;
+            if (this.connectRate > 0) {
+                double interval = TimeUnit.SECONDS.toNanos(1) / this.connectRate;
+                double jitter = interval * this.connectJitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+                this.nextConnect = System.nanoTime() + (long) (interval + jitter);
+            } else {
+                this.nextConnect = 0;
+            }
+
+            this.scheduleDispatch();
+        }
+
+        this.start(connect);
+    }
+
+    private void start(PendingConnect connect) {
+        TcpClientSession session = connect.session;
+        Bootstrap bootstrap = this.bootstrap.clone()
+                .handler(session.buildChannelInitializer())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, session.getConnectTimeout() * 1000);
+
+        long started = System.nanoTime();
+        session.connectAsync(bootstrap).addListener(future -> {
+            long latency = System.nanoTime() - started;
+            boolean closed;
+            synchronized (this) {
+                this.connectsInFlight--;
+                if (future.isSuccess()) {
+                    this.latencies[(int) (this.connects % LATENCY_SAMPLES)] = latency;
+                    this.connects++;
+                } else {
+                    this.failedConnects++;
+                }
+
+                closed = this.closed;
+                this.scheduleDispatch();
+            }
+
+            if (!future.isSuccess()) {
+                connect.promise.tryFailure(future.cause());
+                return;
+            }
+
+            this.track(session);
+            if (closed) {
+                session.disconnectAsync("Fleet has been closed.");
+            }
+
+            connect.promise.trySuccess(null);
+        });
+    }
+
+    private void track(TcpClientSession session) {
+        this.sessions.add(session);
+        session.addListener(new SessionAdapter() {
+            @Override
+            public void disconnected(DisconnectedEvent event) {
+                TcpClientFleet.this.sessions.remove(session);
+            }
+        });
+
+        // The session may have disconnected before the listener was added.
+        if (!session.isConnected()) {
+            this.sessions.remove(session);
+        }
+    }
+
+    private record PendingConnect(TcpClientSession session, Promise<Void> promise) {
+    }
+}
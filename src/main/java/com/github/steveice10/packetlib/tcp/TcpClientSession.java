@@ -1,11 +1,10 @@
 package com.github.steveice10.packetlib.tcp;
 
-import com.github.steveice10.packetlib.BuiltinFlags;
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
 import com.github.steveice10.packetlib.ProxyInfo;
 import com.github.steveice10.packetlib.helper.TransportHelper;
 import com.github.steveice10.packetlib.packet.PacketProtocol;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.epoll.EpollDatagramChannel;
 import io.netty.channel.epoll.EpollEventLoopGroup;
@@ -14,22 +13,21 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.dns.*;
 import io.netty.handler.codec.haproxy.*;
 import io.netty.handler.proxy.HttpProxyHandler;
+import io.netty.handler.proxy.ProxyHandler;
 import io.netty.handler.proxy.Socks4ProxyHandler;
 import io.netty.handler.proxy.Socks5ProxyHandler;
 import io.netty.incubator.channel.uring.IOUringDatagramChannel;
 import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
 import io.netty.incubator.channel.uring.IOUringSocketChannel;
-import io.netty.resolver.dns.DnsNameResolver;
-import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.net.*;
 
 public class TcpClientSession extends TcpSession {
-    private static final String IP_REGEX = "\\b\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\b";
     private static Class<? extends Channel> CHANNEL_CLASS;
     private static Class<? extends DatagramChannel> DATAGRAM_CHANNEL_CLASS;
     private static EventLoopGroup EVENT_LOOP_GROUP;
@@ -59,7 +57,7 @@ public class TcpClientSession extends TcpSession {
     }
 
     public ChannelInitializer<Channel> buildChannelInitializer() {
-        boolean debug = getFlag(BuiltinFlags.PRINT_DEBUG, false);
+        boolean debug = getFlag(BuiltinFlagKeys.PRINT_DEBUG, false);
         return new ChannelInitializer<Channel>() {
             @Override
             public void initChannel(Channel channel) {
@@ -79,6 +77,8 @@ public class TcpClientSession extends TcpSession {
 
                 refreshReadTimeoutHandler(channel);
                 refreshWriteTimeoutHandler(channel);
+                refreshWriteBufferWaterMark(channel);
+                refreshHibernation(channel);
 
                 addProxy(pipeline);
 
@@ -113,104 +113,105 @@ public class TcpClientSession extends TcpSession {
             throw new IllegalStateException("Session has already been disconnected.");
         }
 
-        try {
-            InetSocketAddress remoteAddress = resolveAddress();
-            bootstrap.remoteAddress(remoteAddress);
-            bootstrap.localAddress(bindAddress, bindPort);
-
-            ChannelFuture future = bootstrap.connect();
-            if (wait) {
-                future.sync();
-            }
-
-            future.addListener((futureListener) -> {
-                if (!futureListener.isSuccess()) {
-                    exceptionCaught(null, futureListener.cause());
-                }
-            });
-        } catch (final Throwable e) {
-            exceptionCaught(null, e);
+        Future<Void> future = this.connectAsync(bootstrap);
+        if (wait) {
+            future.awaitUninterruptibly();
         }
     }
 
-
     @Override
     public void connect(boolean wait) {
         connect(wait, buildBootstrap(buildChannelInitializer()));
     }
 
-    private InetSocketAddress resolveAddress() {
-        boolean debug = getFlag(BuiltinFlags.PRINT_DEBUG, false);
+    /**
+     * Connects this session to its host and port without blocking the calling thread.
+     *
+     * @return A future completed once the channel is active and any proxy handshake has finished.
+     */
+    public Future<Void> connectAsync() {
+        return this.connectAsync(buildBootstrap(buildChannelInitializer()));
+    }
 
-        String name = this.getPacketProtocol().getSRVRecordPrefix() + "._tcp." + this.getHost();
-        if (debug) {
-            LOGGER.debug("Attempting SRV lookup for \"" + name + "\".");
+    /**
+     * Connects this session to its host and port with a bootstrap provided by the caller,
+     * without blocking the calling thread. Address resolution, the TCP connect and any
+     * proxy handshake all run on the bootstrap's event loop group. If connecting fails,
+     * the session is disconnected with the reason as well.
+     *
+     * @param bootstrap Bootstrap to connect with.
+     * @return A future completed once the channel is active and any proxy handshake has
+     *         finished, or failed with the reason connecting failed.
+     */
+    public Future<Void> connectAsync(Bootstrap bootstrap) {
+        EventLoopGroup group = bootstrap.config().group();
+        Promise<Void> promise = group.next().newPromise();
+        if (this.disconnected) {
+            return promise.setFailure(new IllegalStateException("Session has already been disconnected."));
         }
 
-        if(getFlag(BuiltinFlags.ATTEMPT_SRV_RESOLVE, true) && (!this.host.matches(IP_REGEX) && !this.host.equalsIgnoreCase("localhost"))) {
-            DnsNameResolver resolver = null;
-            AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = null;
-            try {
-                resolver = new DnsNameResolverBuilder(EVENT_LOOP_GROUP.next())
-                        .channelType(DATAGRAM_CHANNEL_CLASS)
-                        .build();
-                envelope = resolver.query(new DefaultDnsQuestion(name, DnsRecordType.SRV)).get();
-
-                DnsResponse response = envelope.content();
-                if (response.count(DnsSection.ANSWER) > 0) {
-                    DefaultDnsRawRecord record = response.recordAt(DnsSection.ANSWER, 0);
-                    if (record.type() == DnsRecordType.SRV) {
-                        ByteBuf buf = record.content();
-                        buf.skipBytes(4); // Skip priority and weight.
-
-                        int port = buf.readUnsignedShort();
-                        String host = DefaultDnsRecordDecoder.decodeName(buf);
-                        if (host.endsWith(".")) {
-                            host = host.substring(0, host.length() - 1);
-                        }
+        this.resolveAddressAsync(group).addListener(resolved -> {
+            if (!resolved.isSuccess()) {
+                this.connectFailed(promise, resolved.cause());
+                return;
+            }
 
-                        if(debug) {
-                            LOGGER.debug("Found SRV record containing \"" + host + ":" + port + "\".");
-                        }
+            if (this.disconnected) {
+                promise.tryFailure(new IllegalStateException("Session has already been disconnected."));
+                return;
+            }
 
-                        this.host = host;
-                        this.port = port;
-                    } else if (debug) {
-                        LOGGER.debug("Received non-SRV record in response.");
-                    }
-                } else if (debug) {
-                    LOGGER.debug("No SRV record found.");
-                }
-            } catch(Exception e) {
-                if (debug) {
-                    LOGGER.debug("Failed to resolve SRV record.", e);
-                }
-            } finally {
-                if (envelope != null) {
-                    envelope.release();
-                }
+            InetSocketAddress remoteAddress = (InetSocketAddress) resolved.getNow();
+            this.host = remoteAddress.getHostString();
+            this.port = remoteAddress.getPort();
 
-                if (resolver != null) {
-                    resolver.close();
+            ChannelFuture future = bootstrap.remoteAddress(remoteAddress).localAddress(bindAddress, bindPort).connect();
+            future.addListener((ChannelFutureListener) connected -> {
+                if (!connected.isSuccess()) {
+                    this.connectFailed(promise, connected.cause());
+                    return;
                 }
-            }
-        } else if(debug) {
-            LOGGER.debug("Not resolving SRV record for " + this.host);
-        }
 
-        // Resolve host here
-        try {
-            InetAddress resolved = InetAddress.getByName(getHost());
-            if (debug) {
-                LOGGER.debug("Resolved {} -> {}", getHost(), resolved.getHostAddress());
-            }
-            return new InetSocketAddress(resolved, getPort());
-        } catch (UnknownHostException e) {
-            if (debug) {
-                LOGGER.debug("Failed to resolve host, letting Netty do it instead.", e);
-            }
-            return InetSocketAddress.createUnresolved(getHost(), getPort());
+                // The connect future completes just before channelActive is fired, complete afterwards.
+                Channel channel = connected.channel();
+                channel.eventLoop().execute(() -> {
+                    if (!this.isConnected()) {
+                        promise.tryFailure(new IllegalStateException("Session has already been disconnected."));
+                        return;
+                    }
+
+                    ProxyHandler proxyHandler = channel.pipeline().get(ProxyHandler.class);
+                    if (proxyHandler == null) {
+                        promise.trySuccess(null);
+                        return;
+                    }
+
+                    proxyHandler.connectFuture().addListener(handshake -> {
+                        if (handshake.isSuccess()) {
+                            promise.trySuccess(null);
+                        } else {
+                            this.connectFailed(promise, handshake.cause());
+                        }
+                    });
+                });
+            });
+        });
+        return promise;
+    }
+
+    private void connectFailed(Promise<Void> promise, Throwable cause) {
+        promise.tryFailure(cause);
+        exceptionCaught(null, cause);
+    }
+
+    private Future<InetSocketAddress> resolveAddressAsync(EventLoopGroup group) {
+        boolean debug = getFlag(BuiltinFlagKeys.PRINT_DEBUG, false);
+        String srvName = null;
+        if (getFlag(BuiltinFlagKeys.ATTEMPT_SRV_RESOLVE, true)) {
+            srvName = this.getPacketProtocol().getSRVRecordPrefix() + "._tcp." + this.getHost();
         }
+
+        return TcpResolver.get(group, datagramChannelClass(group)).resolve(this.getHost(), this.getPort(), srvName, debug);
     }
 
     void addProxy(ChannelPipeline pipeline) {
@@ -247,8 +248,8 @@ public class TcpClientSession extends TcpSession {
     }
 
     void addHAProxySupport(ChannelPipeline pipeline) {
-        InetSocketAddress clientAddress = getFlag(BuiltinFlags.CLIENT_PROXIED_ADDRESS);
-        if (getFlag(BuiltinFlags.ENABLE_CLIENT_PROXY_PROTOCOL, false) && clientAddress != null) {
+        InetSocketAddress clientAddress = getFlag(BuiltinFlagKeys.CLIENT_PROXIED_ADDRESS);
+        if (getFlag(BuiltinFlagKeys.ENABLE_CLIENT_PROXY_PROTOCOL, false) && clientAddress != null) {
             pipeline.addFirst("proxy-protocol-packet-sender", new ChannelInboundHandlerAdapter() {
                 @Override
                 public void channelActive(ChannelHandlerContext ctx) throws Exception {
@@ -268,11 +269,50 @@ public class TcpClientSession extends TcpSession {
         }
     }
 
+    @Override
+    protected boolean isClient() {
+        return true;
+    }
+
     @Override
     public void disconnect(String reason, Throwable cause) {
         super.disconnect(reason, cause);
     }
 
+    static EventLoopGroup getEventLoopGroup() {
+        createTcpEventLoopGroup();
+        return EVENT_LOOP_GROUP;
+    }
+
+    static Class<? extends Channel> getChannelClass() {
+        createTcpEventLoopGroup();
+        return CHANNEL_CLASS;
+    }
+
+    private static Class<? extends DatagramChannel> datagramChannelClass(EventLoopGroup group) {
+        if (group == EVENT_LOOP_GROUP) {
+            return DATAGRAM_CHANNEL_CLASS;
+        }
+
+        // A caller provided group, only use a native channel type if the group is native too.
+        switch (TransportHelper.determineTransportMethod()) {
+            case IO_URING:
+                if (group instanceof IOUringEventLoopGroup) {
+                    return IOUringDatagramChannel.class;
+                }
+
+                break;
+            case EPOLL:
+                if (group instanceof EpollEventLoopGroup) {
+                    return EpollDatagramChannel.class;
+                }
+
+                break;
+        }
+
+        return NioDatagramChannel.class;
+    }
+
     private static void createTcpEventLoopGroup() {
         if (CHANNEL_CLASS != null) {
             return;
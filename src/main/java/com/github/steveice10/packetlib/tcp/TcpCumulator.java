@@ -0,0 +1,53 @@
+package com.github.steveice10.packetlib.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+/**
+ * Accumulates partial frames without holding on to large buffers.
+ *
+ * Large frames are accumulated as composite buffers, so their parts are not copied each
+ * time the cumulation grows. Once only a small remainder is left in a large or composite
+ * cumulation, it is copied into a right-sized buffer and the large one is released.
+ */
+class TcpCumulator implements ByteToMessageDecoder.Cumulator {
+    static final TcpCumulator INSTANCE = new TcpCumulator();
+
+    private static final int LARGE_CUMULATION = 64 * 1024;
+
+    private TcpCumulator() {
+    }
+
+    @Override
+    public ByteBuf cumulate(ByteBufAllocator alloc, ByteBuf cumulation, ByteBuf in) {
+        if (!cumulation.isReadable()) {
+            // Nothing left over, start from the incoming buffer whatever the old capacity was.
+            cumulation.release();
+            return in;
+        }
+
+        int readable = cumulation.readableBytes() + in.readableBytes();
+        if (readable >= LARGE_CUMULATION) {
+            return ByteToMessageDecoder.COMPOSITE_CUMULATOR.cumulate(alloc, cumulation, in);
+        }
+
+        if (cumulation.capacity() >= LARGE_CUMULATION || cumulation instanceof CompositeByteBuf) {
+            ByteBuf shrunk = alloc.buffer(readable);
+            try {
+                shrunk.writeBytes(cumulation).writeBytes(in);
+            } catch (Throwable t) {
+                shrunk.release();
+                throw t;
+            } finally {
+                cumulation.release();
+                in.release();
+            }
+
+            return shrunk;
+        }
+
+        return ByteToMessageDecoder.MERGE_CUMULATOR.cumulate(alloc, cumulation, in);
+    }
+}
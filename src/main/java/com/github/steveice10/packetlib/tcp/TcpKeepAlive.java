@@ -0,0 +1,129 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.packet.KeepAlive;
+import com.github.steveice10.packetlib.packet.Packet;
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a session's pings from the timer shared with {@link TcpTimeoutHandler} and keeps
+ * its round-trip time estimate.
+ *
+ * Pings are written on the event loop ahead of the session's outbound queue, so the
+ * round-trip time does not include time spent queued behind bulk or paced packets. Only
+ * the latest ping is awaited, a response to an older one is ignored. The smoothed
+ * round-trip time follows RFC 6298, weighting each new sample by 1/8.
+ */
+class TcpKeepAlive implements TimerTask {
+    private final TcpSession session;
+    private final KeepAlive keepAlive;
+    private final long interval;
+    private long nextId;
+    private Timeout timeout;
+    private boolean stopped;
+
+    private volatile long pendingId = -1;
+    private volatile long pendingSince;
+    private volatile long rtt = -1;
+    private volatile long minRtt = -1;
+    private volatile long maxRtt = -1;
+
+    TcpKeepAlive(TcpSession session, KeepAlive keepAlive, long interval) {
+        this.session = session;
+        this.keepAlive = keepAlive;
+        this.interval = interval;
+    }
+
+    KeepAlive getKeepAlive() {
+        return this.keepAlive;
+    }
+
+    long getInterval() {
+        return this.interval;
+    }
+
+    synchronized void start() {
+        if (!this.stopped && this.timeout == null) {
+            this.timeout = TcpTimeoutHandler.timer().newTimeout(this, this.interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        this.stopped = true;
+        if (this.timeout != null) {
+            this.timeout.cancel();
+            this.timeout = null;
+        }
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        long id;
+        synchronized (this) {
+            if (this.stopped || timeout != this.timeout) {
+                return;
+            }
+
+            if (!this.session.isConnected()) {
+                this.timeout = null;
+                return;
+            }
+
+            id = this.nextId++;
+            this.timeout = timeout.timer().newTimeout(this, this.interval, TimeUnit.NANOSECONDS);
+        }
+
+        Channel channel = this.session.getChannel();
+        Packet ping = this.keepAlive.createPing(id);
+        channel.eventLoop().execute(() -> {
+            if (!channel.isActive() || this.session.hasPendingBarrier()) {
+                // Skipped rather than written ahead of a pending encoding change.
+                return;
+            }
+
+            this.pendingSince = System.nanoTime();
+            this.pendingId = id;
+            this.session.writePacket(ping, true);
+        });
+    }
+
+    /**
+     * Records a round-trip time sample if the packet answers the awaited ping.
+     *
+     * @param packet The received packet.
+     */
+    void received(Packet packet) {
+        long pending = this.pendingId;
+        if (pending < 0 || this.keepAlive.getPongId(packet) != pending) {
+            return;
+        }
+
+        long sample = System.nanoTime() - this.pendingSince;
+        this.pendingId = -1;
+
+        long rtt = this.rtt;
+        this.rtt = rtt < 0 ? sample : rtt + (sample - rtt) / 8;
+        if (this.minRtt < 0 || sample < this.minRtt) {
+            this.minRtt = sample;
+        }
+
+        if (sample > this.maxRtt) {
+            this.maxRtt = sample;
+        }
+    }
+
+    long getRtt() {
+        return this.rtt;
+    }
+
+    long getMinRtt() {
+        return this.minRtt;
+    }
+
+    long getMaxRtt() {
+        return this.maxRtt;
+    }
+}
@@ -0,0 +1,554 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.OutboundPolicy;
+import com.github.steveice10.packetlib.packet.BufferedPacket;
+import com.github.steveice10.packetlib.packet.OutboundPriority;
+import com.github.steveice10.packetlib.packet.Packet;
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Schedules the packets sent by a session onto its channel.
+ *
+ * Packets are only handed to the channel while it is writable. Anything sent beyond
+ * that waits in one queue per {@link OutboundPriority}, where higher classes overtake
+ * lower ones. A lower class is still served once it has been passed over
+ * {@link #STARVATION_LIMIT} times in a row.
+ *
+ * With pacing enabled, {@link OutboundPriority#BULK} packets are additionally limited
+ * by a token bucket refilled at the pacing rate, while other classes bypass it.
+ *
+ * Actions that must not overtake packets sent before them, such as a direct send or a
+ * change to the pipeline's encoding, wait as barriers until every packet queued ahead
+ * of them was written. Packets sent after a barrier wait behind it.
+ *
+ * With a spill threshold set, {@link OutboundPriority#BULK} packets queued beyond it are
+ * serialized into a {@link TcpSpillFile} and read back once the memory queue has drained.
+ * Once the file is full, further ones are dropped as under {@link OutboundPolicy#DROP}.
+ */
+class TcpOutboundQueue {
+    private static final OutboundPriority[] PRIORITIES = OutboundPriority.values();
+    private static final int STARVATION_LIMIT = 16;
+    private static final int BULK = OutboundPriority.BULK.ordinal();
+    private static final long MIN_PACING_BURST = 16384;
+
+    private final TcpSession session;
+    private final Map<HeldKey, Packet> held = new LinkedHashMap<>();
+    private final Queue<Packet>[] queues;
+    private final Queue<Object> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicIntegerArray queued = new AtomicIntegerArray(PRIORITIES.length);
+    private final int[] passedOver = new int[PRIORITIES.length];
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile OutboundPolicy policy = OutboundPolicy.QUEUE;
+    private volatile boolean conflation;
+
+    // Pacing state, only touched on the event loop apart from the rate.
+    private volatile long pacingRate;
+    private long pacingTokens;
+    private long lastRefill;
+    private ScheduledFuture<?> pacingTimer;
+    private TcpPacketSizer sizer;
+    private TcpPacketCodec codec;
+
+    private final Object spillLock = new Object();
+    private volatile int spillThreshold;
+    private TcpSpillFile spill;
+
+    @SuppressWarnings("unchecked")
+    TcpOutboundQueue(TcpSession session) {
+        this.session = session;
+        this.queues = new Queue[PRIORITIES.length];
+        for (int i = 0; i < this.queues.length; i++) {
+            this.queues[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    OutboundPolicy getPolicy() {
+        return this.policy;
+    }
+
+    void setPolicy(OutboundPolicy policy) {
+        this.policy = policy;
+    }
+
+    boolean isConflationEnabled() {
+        return this.conflation;
+    }
+
+    void setConflationEnabled(boolean conflation) {
+        this.conflation = conflation;
+    }
+
+    long getPacingRate() {
+        return this.pacingRate;
+    }
+
+    void setPacingRate(long bytesPerSecond) {
+        this.pacingRate = Math.max(0, bytesPerSecond);
+    }
+
+    int getSpillThreshold() {
+        return this.spillThreshold;
+    }
+
+    void setSpillThreshold(int packets) {
+        this.spillThreshold = Math.max(0, packets);
+    }
+
+    int getSpilledPackets() {
+        synchronized (this.spillLock) {
+            return this.spill != null ? this.spill.size() : 0;
+        }
+    }
+
+    long getDroppedPackets() {
+        return this.dropped.get();
+    }
+
+    synchronized int getHeldPackets() {
+        return this.held.size();
+    }
+
+    int getQueuedPackets(OutboundPriority priority) {
+        return this.queued.get(priority.ordinal());
+    }
+
+    /**
+     * Offers a packet that is about to be sent.
+     *
+     * @return Whether the caller should write the packet right away. False if it was
+     * dropped, held back or queued.
+     */
+    boolean offer(Channel channel, Packet packet) {
+        if (!this.deferred.isEmpty()) {
+            // Waits behind a barrier, released into the queues once the barrier has run.
+            this.deferred.add(packet);
+            this.scheduleDrain(channel);
+            return false;
+        }
+
+        boolean writable = channel.isWritable();
+        boolean backlog = this.hasBacklog();
+        // Only conflated while packets wait anyway, so nothing is held back or reordered otherwise.
+        Function<Packet, ?> conflationKey = this.conflation && (!writable || backlog) ? this.session.getPacketProtocol().getConflationKey(packet) : null;
+        if (conflationKey != null) {
+            this.hold(channel, packet, conflationKey.apply(packet));
+            return false;
+        }
+
+        OutboundPolicy policy = this.policy;
+        if (!writable && policy != OutboundPolicy.QUEUE && !packet.isPriority()) {
+            if (policy == OutboundPolicy.DROP) {
+                this.dropped.incrementAndGet();
+            } else {
+                this.hold(channel, packet, null);
+            }
+
+            return false;
+        }
+
+        if (writable && channel.eventLoop().inEventLoop() && !backlog && !this.isPaced(packet)) {
+            return true;
+        }
+
+        this.enqueue(packet);
+        this.scheduleDrain(channel);
+        return false;
+    }
+
+    /**
+     * Runs an action once every packet sent before it has been written. Runs it right
+     * away, on the calling thread, if nothing is queued or held.
+     *
+     * @param channel Channel the packets are written to.
+     * @param action  Action to run.
+     */
+    void runAfterQueued(Channel channel, Runnable action) {
+        if (this.deferred.isEmpty() && !this.hasBacklog()) {
+            action.run();
+            return;
+        }
+
+        this.deferred.add(new Barrier(action));
+        this.scheduleDrain(channel);
+    }
+
+    boolean hasBarrier() {
+        return !this.deferred.isEmpty();
+    }
+
+    private void hold(Channel channel, Packet packet, Object key) {
+        synchronized (this) {
+            if (this.held.put(new HeldKey(packetClass(packet), key), packet) != null) {
+                this.dropped.incrementAndGet();
+            }
+        }
+
+        this.scheduleDrain(channel);
+    }
+
+    private void enqueue(Packet packet) {
+        int priority = this.session.getPacketProtocol().getOutboundPriority(packet).ordinal();
+        if (priority == BULK && this.spillThreshold > 0) {
+            // Decided under the lock so packets never overtake ones already spilled.
+            synchronized (this.spillLock) {
+                if (!this.spill(packet)) {
+                    this.queued.incrementAndGet(priority);
+                    this.queues[priority].add(packet);
+                }
+            }
+
+            return;
+        }
+
+        this.queued.incrementAndGet(priority);
+        this.queues[priority].add(packet);
+    }
+
+    /**
+     * Spills a packet if the memory queue is over the threshold, or drops it if it cannot
+     * be spilled. Once anything is spilled, packets are never kept in memory, as they would
+     * overtake the spilled ones.
+     *
+     * The file I/O runs on the calling thread, possibly the event loop. It is bounded: the
+     * file is created once per spill episode and doubles from 1MB at most 8 times up to its
+     * cap, otherwise a write only copies the packet body into the mapped file.
+     *
+     * @return Whether the packet was spilled or dropped, false if it should be kept in memory.
+     */
+    private boolean spill(Packet packet) {
+        int spilled = this.spill != null ? this.spill.size() : 0;
+        if (spilled == 0 && this.queued.get(BULK) < this.spillThreshold) {
+            return false;
+        }
+
+        if (this.spill == null) {
+            this.spill = new TcpSpillFile();
+        }
+
+        boolean written;
+        try {
+            written = this.spill.write(packetClass(packet), packet);
+        } catch (Exception e) {
+            // Kept in memory it would overtake the packets already spilled.
+            written = false;
+        }
+
+        if (written) {
+            this.queued.incrementAndGet(BULK);
+        } else {
+            this.dropped.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    private void scheduleDrain(Channel channel) {
+        // Written on the next pass of the event loop if the channel is writable by then,
+        // otherwise once writability comes back.
+        if (this.drainScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(() -> {
+                this.drainScheduled.set(false);
+                this.drain(channel);
+            });
+        }
+    }
+
+    /**
+     * Writes queued packets for as long as the channel stays writable. Must be called
+     * on the channel's event loop.
+     */
+    void drain(Channel channel) {
+        this.drain(channel, false);
+    }
+
+    /**
+     * Writes queued packets right before the channel is closed. Packets other than
+     * {@link OutboundPriority#BULK} are written regardless of writability, so a final
+     * disconnect packet still goes out, while bulk packets are only written as long as the
+     * channel stays writable and are otherwise discarded with the queue. Must be called on
+     * the channel's event loop.
+     */
+    void drainForClose(Channel channel) {
+        this.drain(channel, true);
+    }
+
+    private void drain(Channel channel, boolean closing) {
+        if (!closing && !channel.isWritable()) {
+            return;
+        }
+
+        this.releaseHeld();
+
+        // Read once, the rate may be changed from another thread while draining.
+        long rate = closing ? 0 : this.pacingRate;
+        boolean paced = rate > 0;
+        boolean wrote = false;
+        while (closing || channel.isWritable()) {
+            boolean bulkAllowed = closing ? channel.isWritable() : !paced || this.hasPacingTokens(rate);
+            int priority = this.next(bulkAllowed);
+            if (priority == -1) {
+                if (this.releaseDeferred()) {
+                    wrote = true;
+                    continue;
+                }
+
+                break;
+            }
+
+            Packet packet = this.poll(priority);
+            if (packet == null) {
+                break;
+            }
+
+            this.session.writePacket(packet, false);
+            if (paced && priority == BULK) {
+                this.pacingTokens -= this.encodedSize(channel);
+            }
+
+            wrote = true;
+        }
+
+        if (wrote) {
+            channel.flush();
+        }
+
+        if (paced && !this.isEmpty(BULK) && !this.hasPacingTokens(rate)) {
+            this.schedulePacingTimer(channel, rate);
+        }
+    }
+
+    /**
+     * Runs the barrier at the head of the deferred entries and releases the packets behind
+     * it into the queues, up to the next barrier. Only done once everything queued ahead
+     * was written.
+     *
+     * @return Whether any entry was released.
+     */
+    private boolean releaseDeferred() {
+        if (this.deferred.isEmpty() || this.hasBacklog()) {
+            return false;
+        }
+
+        boolean released = false;
+        Object entry;
+        while ((entry = this.deferred.peek()) != null) {
+            if (entry instanceof Barrier barrier) {
+                if (released) {
+                    break;
+                }
+
+                this.deferred.poll();
+                try {
+                    barrier.action().run();
+                } catch (Throwable t) {
+                    this.session.exceptionCaught(null, t);
+                }
+            } else {
+                this.deferred.poll();
+                this.enqueue((Packet) entry);
+            }
+
+            released = true;
+        }
+
+        return released;
+    }
+
+    private boolean isPaced(Packet packet) {
+        return this.pacingRate > 0 && this.session.getPacketProtocol().getOutboundPriority(packet) == OutboundPriority.BULK;
+    }
+
+    private boolean hasPacingTokens(long rate) {
+        long now = System.nanoTime();
+        // One round trip worth of data once keep-alive pings measured it, 50ms until then.
+        long rtt = Math.min(this.session.getRtt(TimeUnit.NANOSECONDS), TimeUnit.SECONDS.toNanos(1));
+        long burst = Math.max(MIN_PACING_BURST, rtt > 0 ? rtt * rate / TimeUnit.SECONDS.toNanos(1) : rate / 20);
+        if (this.lastRefill == 0) {
+            this.pacingTokens = burst;
+        } else {
+            long elapsed = Math.min(now - this.lastRefill, TimeUnit.SECONDS.toNanos(1));
+            this.pacingTokens = Math.min(burst, this.pacingTokens + elapsed * rate / TimeUnit.SECONDS.toNanos(1));
+        }
+
+        this.lastRefill = now;
+        return this.pacingTokens > 0;
+    }
+
+    private void schedulePacingTimer(Channel channel, long rate) {
+        if (this.pacingTimer != null) {
+            return;
+        }
+
+        long delay = Math.max(1, (1 - this.pacingTokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+        this.pacingTimer = channel.eventLoop().schedule(() -> {
+            this.pacingTimer = null;
+            this.drain(channel);
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the number of bytes the last written packet took on the wire, as framed by the
+     * sizer after compression, or as encoded by the codec if the protocol has no length prefix.
+     */
+    private int encodedSize(Channel channel) {
+        if (this.sizer == null && this.codec == null) {
+            this.sizer = channel.pipeline().get(TcpPacketSizer.class);
+            if (this.sizer == null) {
+                this.codec = channel.pipeline().get(TcpPacketCodec.class);
+            }
+        }
+
+        if (this.sizer != null) {
+            return this.sizer.getLastEncodedSize();
+        }
+
+        return this.codec != null ? this.codec.getLastEncodedSize() : 0;
+    }
+
+    private void releaseHeld() {
+        List<Packet> packets;
+        synchronized (this) {
+            if (this.held.isEmpty()) {
+                return;
+            }
+
+            packets = new ArrayList<>(this.held.values());
+            this.held.clear();
+        }
+
+        for (Packet packet : packets) {
+            this.enqueue(packet);
+        }
+    }
+
+    private int next(boolean bulkAllowed) {
+        for (int i = 0; i < this.queues.length; i++) {
+            if (!this.isEligible(i, bulkAllowed)) {
+                continue;
+            }
+
+            for (int lower = this.queues.length - 1; lower > i; lower--) {
+                if (this.isEligible(lower, bulkAllowed) && ++this.passedOver[lower] > STARVATION_LIMIT) {
+                    return lower;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    private boolean isEligible(int priority, boolean bulkAllowed) {
+        return (bulkAllowed || priority != BULK) && !this.isEmpty(priority);
+    }
+
+    private boolean isEmpty(int priority) {
+        if (!this.queues[priority].isEmpty()) {
+            return false;
+        }
+
+        return priority != BULK || this.getSpilledPackets() == 0;
+    }
+
+    private Packet poll(int priority) {
+        Packet packet = this.queues[priority].poll();
+        if (packet == null && priority == BULK) {
+            synchronized (this.spillLock) {
+                packet = this.spill != null ? this.spill.read() : null;
+            }
+        }
+
+        if (packet != null) {
+            this.queued.decrementAndGet(priority);
+            this.passedOver[priority] = 0;
+        }
+
+        return packet;
+    }
+
+    private boolean hasBacklog() {
+        if (!this.isEmpty()) {
+            return true;
+        }
+
+        synchronized (this) {
+            return !this.held.isEmpty();
+        }
+    }
+
+    private boolean isEmpty() {
+        for (int i = 0; i < this.queues.length; i++) {
+            if (!this.isEmpty(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Deletes the spill file if nothing is spilled, it is recreated when needed again.
+     */
+    void hibernate() {
+        synchronized (this.spillLock) {
+            if (this.spill != null && this.spill.isEmpty()) {
+                this.spill.close();
+                this.spill = null;
+            }
+        }
+    }
+
+    /**
+     * Discards all held and queued packets.
+     */
+    void clear() {
+        if (this.pacingTimer != null) {
+            this.pacingTimer.cancel(false);
+            this.pacingTimer = null;
+        }
+
+        synchronized (this) {
+            this.held.clear();
+        }
+
+        this.deferred.clear();
+        for (int i = 0; i < this.queues.length; i++) {
+            while (this.queues[i].poll() != null) {
+                this.queued.decrementAndGet(i);
+            }
+        }
+
+        synchronized (this.spillLock) {
+            if (this.spill != null) {
+                this.queued.addAndGet(BULK, -this.spill.size());
+                this.spill.close();
+                this.spill = null;
+            }
+        }
+    }
+
+    private static Class<? extends Packet> packetClass(Packet packet) {
+        return packet instanceof BufferedPacket ? ((BufferedPacket) packet).getPacketClass() : packet.getClass();
+    }
+
+    private record Barrier(Runnable action) {
+    }
+
+    private record HeldKey(Class<? extends Packet> packetClass, Object key) {
+    }
+}
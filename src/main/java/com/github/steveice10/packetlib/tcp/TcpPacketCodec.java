@@ -1,10 +1,12 @@
 package com.github.steveice10.packetlib.tcp;
 
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
 import com.github.steveice10.packetlib.Session;
 import com.github.steveice10.packetlib.event.session.PacketErrorEvent;
 import com.github.steveice10.packetlib.io.NetInput;
 import com.github.steveice10.packetlib.io.NetOutput;
 import com.github.steveice10.packetlib.packet.Packet;
+import com.github.steveice10.packetlib.packet.PacketProtocol;
 import com.github.steveice10.packetlib.tcp.io.ByteBufNetInput;
 import com.github.steveice10.packetlib.tcp.io.ByteBufNetOutput;
 import io.netty.buffer.ByteBuf;
@@ -16,12 +18,23 @@ import java.util.List;
 public class TcpPacketCodec extends ByteToMessageCodec<Packet> {
     private final Session session;
     private final boolean client;
+    private int lastEncodedSize;
 
     public TcpPacketCodec(Session session, boolean client) {
         this.session = session;
         this.client = client;
     }
 
+    /**
+     * Gets the size of the most recently encoded packet. Only meaningful on the
+     * channel's event loop, right after a packet was written.
+     *
+     * @return The encoded size in bytes.
+     */
+    int getLastEncodedSize() {
+        return this.lastEncodedSize;
+    }
+
     @Override
     public void encode(ChannelHandlerContext ctx, Packet packet, ByteBuf buf) throws Exception {
         int initial = buf.writerIndex();
@@ -31,13 +44,12 @@ public class TcpPacketCodec extends ByteToMessageCodec<Packet> {
 
             this.session.getPacketProtocol().getPacketHeader().writePacketId(out, this.client ? this.session.getPacketProtocol().getServerboundId(packet) : this.session.getPacketProtocol().getClientboundId(packet));
             packet.write(out);
+            this.lastEncodedSize = buf.writerIndex() - initial;
         } catch (Throwable t) {
             // Reset writer index to make sure incomplete data is not written out.
             buf.writerIndex(initial);
 
-            PacketErrorEvent e = new PacketErrorEvent(this.session, t);
-            this.session.callEvent(e);
-            if (!e.shouldSuppress()) {
+            if (!this.callPacketError(t)) {
                 throw t;
             }
         }
@@ -45,21 +57,37 @@ public class TcpPacketCodec extends ByteToMessageCodec<Packet> {
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
+        if (!this.session.isConnected()) {
+            // Whatever is still buffered after a disconnect is not worth decoding.
+            buf.skipBytes(buf.readableBytes());
+            return;
+        }
+
         int initial = buf.readerIndex();
 
         try {
             NetInput in = new ByteBufNetInput(buf);
+            PacketProtocol protocol = this.session.getPacketProtocol();
 
-            int id = this.session.getPacketProtocol().getPacketHeader().readPacketId(in);
+            int id = protocol.getPacketHeader().readPacketId(in);
             if (id == -1) {
                 buf.readerIndex(initial);
                 return;
             }
 
-            Packet packet = this.client ? this.session.getPacketProtocol().createClientboundPacket(id, in) : this.session.getPacketProtocol().createServerboundPacket(id, in);
+            if (!(this.client ? protocol.isClientboundRegistered(id) : protocol.isServerboundRegistered(id))) {
+                throw PacketDecodeError.UNKNOWN_PACKET_ID.getException();
+            }
+
+            int maxSize = this.client ? protocol.getClientboundMaxSize(id) : protocol.getServerboundMaxSize(id);
+            if (maxSize >= 0 && buf.readableBytes() > maxSize) {
+                throw PacketDecodeError.PACKET_TOO_LARGE.getException();
+            }
+
+            Packet packet = this.client ? protocol.createClientboundPacket(id, in) : protocol.createServerboundPacket(id, in);
 
             if (buf.readableBytes() > 0) {
-                throw new IllegalStateException("Packet \"" + packet.getClass().getSimpleName() + "\" not fully read.");
+                throw PacketDecodeError.PACKET_NOT_FULLY_READ.getException();
             }
 
             out.add(packet);
@@ -67,11 +95,33 @@ public class TcpPacketCodec extends ByteToMessageCodec<Packet> {
             // Advance buffer to end to make sure remaining data in this packet is skipped.
             buf.readerIndex(buf.readerIndex() + buf.readableBytes());
 
-            PacketErrorEvent e = new PacketErrorEvent(this.session, t);
-            this.session.callEvent(e);
-            if (!e.shouldSuppress()) {
-                throw t;
+            if (!this.callPacketError(t)) {
+                // Packet readers fail with arbitrary exceptions on malformed input. Unless debugging,
+                // these are replaced by a stackless malformed packet error instead of being wrapped
+                // by the decoder.
+                if (t instanceof PacketDecodeException || this.session.getFlag(BuiltinFlagKeys.PRINT_DEBUG)) {
+                    throw t;
+                }
+
+                throw PacketDecodeError.MALFORMED_PACKET.getException();
             }
         }
     }
+
+    /**
+     * Calls a packet error event, unless no listener observes it.
+     *
+     * @param cause The error.
+     * @return Whether a listener suppressed the error.
+     */
+    private boolean callPacketError(Throwable cause) {
+        if (this.session instanceof TcpSession && !((TcpSession) this.session).hasPacketErrorListeners()) {
+            // Nothing to notify, a flood of bad packets allocates no events.
+            return false;
+        }
+
+        PacketErrorEvent e = new PacketErrorEvent(this.session, cause);
+        this.session.callEvent(e);
+        return e.shouldSuppress();
+    }
 }
@@ -1,56 +1,128 @@
 package com.github.steveice10.packetlib.tcp;
 
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
 import com.github.steveice10.packetlib.Session;
 import com.github.steveice10.packetlib.tcp.io.ByteBufNetInput;
 import com.github.steveice10.packetlib.tcp.io.ByteBufNetOutput;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageCodec;
-import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.channel.CombinedChannelDuplexHandler;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.MessageToByteEncoder;
 
 import java.util.List;
 
-public class TcpPacketSizer extends ByteToMessageCodec<ByteBuf> {
-    private final Session session;
-    private final int size;
-
+/**
+ * Splits the inbound byte stream into length-prefixed frames and prefixes outbound ones.
+ *
+ * Partial frames are accumulated with {@link TcpCumulator}, so a single large frame does
+ * not leave a large buffer behind for the rest of the connection. Complete frames are
+ * passed on as slices of the accumulated data instead of copies.
+ */
+public class TcpPacketSizer extends CombinedChannelDuplexHandler<TcpPacketSizer.Decoder, TcpPacketSizer.Encoder> {
     public TcpPacketSizer(Session session, int size) {
-        this.session = session;
-        this.size = size;
+        super(new Decoder(session, size), new Encoder(session));
+    }
+
+    /**
+     * Gets the number of bytes currently held to accumulate partial frames.
+     *
+     * @return The retained buffer capacity in bytes.
+     */
+    public int getRetainedBytes() {
+        return this.inboundHandler().retainedBytes;
     }
 
-    @Override
-    public void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
-        int length = in.readableBytes();
-        out.ensureWritable(this.session.getPacketProtocol().getPacketHeader().getLengthSize(length) + length);
-        this.session.getPacketProtocol().getPacketHeader().writeLength(new ByteBufNetOutput(out), length);
-        out.writeBytes(in);
+    /**
+     * Gets the size of the last frame written, including its length prefix and after
+     * compression. Only meaningful on the channel's event loop.
+     *
+     * @return The frame size in bytes.
+     */
+    int getLastEncodedSize() {
+        return this.outboundHandler().lastEncodedSize;
     }
 
-    @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
-        buf.markReaderIndex();
-        byte[] lengthBytes = new byte[size];
-        for (int index = 0; index < lengthBytes.length; index++) {
-            if (!buf.isReadable()) {
-                buf.resetReaderIndex();
-                return;
+    static class Encoder extends MessageToByteEncoder<ByteBuf> {
+        private final Session session;
+        private int lastEncodedSize;
+
+        private Encoder(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
+            int length = in.readableBytes();
+            int initial = out.writerIndex();
+            out.ensureWritable(this.session.getPacketProtocol().getPacketHeader().getLengthSize(length) + length);
+            this.session.getPacketProtocol().getPacketHeader().writeLength(new ByteBufNetOutput(out), length);
+            out.writeBytes(in);
+            this.lastEncodedSize = out.writerIndex() - initial;
+        }
+    }
+
+    static class Decoder extends ByteToMessageDecoder {
+        private final Session session;
+        private final int size;
+        private volatile int retainedBytes;
+
+        private Decoder(Session session, int size) {
+            this.session = session;
+            this.size = size;
+            this.setCumulator(TcpCumulator.INSTANCE);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            try {
+                super.channelRead(ctx, msg);
+            } finally {
+                this.retainedBytes = this.internalBuffer().capacity();
             }
+        }
 
-            lengthBytes[index] = buf.readByte();
-            if ((this.session.getPacketProtocol().getPacketHeader().isLengthVariable() && lengthBytes[index] >= 0) || index == size - 1) {
-                int length = this.session.getPacketProtocol().getPacketHeader().readLength(new ByteBufNetInput(Unpooled.wrappedBuffer(lengthBytes)), buf.readableBytes());
-                if (buf.readableBytes() < length) {
+        @Override
+        protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+            this.retainedBytes = 0;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
+            buf.markReaderIndex();
+            byte[] lengthBytes = new byte[size];
+            for (int index = 0; index < lengthBytes.length; index++) {
+                if (!buf.isReadable()) {
                     buf.resetReaderIndex();
                     return;
                 }
 
-                out.add(buf.readBytes(length));
-                return;
+                lengthBytes[index] = buf.readByte();
+                if ((this.session.getPacketProtocol().getPacketHeader().isLengthVariable() && lengthBytes[index] >= 0) || index == size - 1) {
+                    int length = this.session.getPacketProtocol().getPacketHeader().readLength(new ByteBufNetInput(Unpooled.wrappedBuffer(lengthBytes)), buf.readableBytes());
+                    if (length < 0 || this.isTooLarge(length)) {
+                        // Rejected before the frame is buffered, however much of it the peer announced.
+                        throw PacketDecodeError.FRAME_TOO_LARGE.getException();
+                    }
+
+                    if (buf.readableBytes() < length) {
+                        buf.resetReaderIndex();
+                        return;
+                    }
+
+                    out.add(buf.readRetainedSlice(length));
+                    return;
+                }
             }
+
+            throw PacketDecodeError.FRAME_TOO_LONG.getException();
         }
 
-        throw new CorruptedFrameException("Length is too long.");
+        private boolean isTooLarge(int length) {
+            int protocolMax = this.session.getPacketProtocol().getMaxFrameSize();
+            int sessionMax = this.session.getFlag(BuiltinFlagKeys.MAX_FRAME_SIZE);
+            return (protocolMax >= 0 && length > protocolMax) || (sessionMax >= 0 && length > sessionMax);
+        }
     }
 }
@@ -9,7 +9,6 @@ import com.velocitypowered.natives.util.Natives;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
-import io.netty.handler.codec.DecoderException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,7 +19,7 @@ public class TcpPacketVelocityCompression extends ByteToMessageCodec<ByteBuf> {
 
     private final Session session;
     private final boolean validateDecompression;
-    private final VelocityCompressor velocityCompressor;
+    private VelocityCompressor velocityCompressor;
     private static final Logger LOGGER = LoggerFactory.getLogger(TcpPacketVelocityCompression.class);
     public TcpPacketVelocityCompression(Session session, boolean validateDecompression) {
         this.session = session;
@@ -32,7 +31,26 @@ public class TcpPacketVelocityCompression extends ByteToMessageCodec<ByteBuf> {
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
         super.handlerRemoved(ctx);
-        this.velocityCompressor.close();
+        this.hibernate();
+    }
+
+    /**
+     * Releases the native compression context until the next packet needs it. Each packet
+     * is compressed on its own, so nothing is lost. Must be called on the channel's event loop.
+     */
+    void hibernate() {
+        if (this.velocityCompressor != null) {
+            this.velocityCompressor.close();
+            this.velocityCompressor = null;
+        }
+    }
+
+    private VelocityCompressor compressor() {
+        if (this.velocityCompressor == null) {
+            this.velocityCompressor = Natives.compress.get().create(4);
+        }
+
+        return this.velocityCompressor;
     }
 
     @Override
@@ -44,9 +62,10 @@ public class TcpPacketVelocityCompression extends ByteToMessageCodec<ByteBuf> {
             out.writeBytes(in);
         } else {
             output.writeVarInt(readable);
-            final ByteBuf byteBufCompat = MoreByteBufUtils.ensureCompatible(ctx.alloc(), this.velocityCompressor, in);
+            VelocityCompressor compressor = this.compressor();
+            final ByteBuf byteBufCompat = MoreByteBufUtils.ensureCompatible(ctx.alloc(), compressor, in);
             try {
-                this.velocityCompressor.deflate(byteBufCompat, out);
+                compressor.deflate(byteBufCompat, out);
             } finally {
                 byteBufCompat.release();
             }
@@ -62,19 +81,16 @@ public class TcpPacketVelocityCompression extends ByteToMessageCodec<ByteBuf> {
                 out.add(buf.readBytes(buf.readableBytes()));
             } else {
                 if (validateDecompression) { // This is sectioned off as of at least Java Edition 1.18
-                    if (size < this.session.getCompressionThreshold()) {
-                        throw new DecoderException("Badly compressed packet: size of " + size + " is below threshold of " + this.session.getCompressionThreshold() + ".");
-                    }
-
-                    if (size > MAX_COMPRESSED_SIZE) {
-                        throw new DecoderException("Badly compressed packet: size of " + size + " is larger than protocol maximum of " + MAX_COMPRESSED_SIZE + ".");
+                    if (size < this.session.getCompressionThreshold() || size > MAX_COMPRESSED_SIZE) {
+                        throw PacketDecodeError.BAD_COMPRESSED_SIZE.getException();
                     }
                 }
 
-                final ByteBuf compatibleIn = MoreByteBufUtils.ensureCompatible(ctx.alloc(), this.velocityCompressor, buf);
-                final ByteBuf uncompressed = MoreByteBufUtils.preferredBuffer(ctx.alloc(), velocityCompressor, size);
+                VelocityCompressor compressor = this.compressor();
+                final ByteBuf compatibleIn = MoreByteBufUtils.ensureCompatible(ctx.alloc(), compressor, buf);
+                final ByteBuf uncompressed = MoreByteBufUtils.preferredBuffer(ctx.alloc(), compressor, size);
                 try {
-                    this.velocityCompressor.inflate(compatibleIn, uncompressed, size);
+                    compressor.inflate(compatibleIn, uncompressed, size);
                     out.add(uncompressed);
                     buf.clear();
                 } catch (final Exception e) {
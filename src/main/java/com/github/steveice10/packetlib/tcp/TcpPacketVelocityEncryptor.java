@@ -4,20 +4,39 @@ import com.velocitypowered.natives.encryption.VelocityCipher;
 import com.velocitypowered.natives.util.MoreByteBufUtils;
 import com.velocitypowered.natives.util.Natives;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.PromiseNotifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.SecretKey;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Encrypts and decrypts the raw byte stream of a session.
+ *
+ * Outbound buffers are held until the channel is flushed, or until
+ * {@link #MAX_COALESCED_BYTES} are held, then merged into one contiguous buffer and
+ * encrypted with a single native cipher call. Held buffers are not yet counted by the
+ * channel's outbound buffer, so the bound keeps writability reflecting what was written.
+ */
 public class TcpPacketVelocityEncryptor extends MessageToMessageCodec<ByteBuf, ByteBuf> {
+    private static final int MAX_COALESCED_BYTES = 64 * 1024;
+
     private final VelocityCipher velocityCipherDecrypt;
     private final VelocityCipher velocityCipherEncrypt;
     private static final Logger LOGGER = LoggerFactory.getLogger(TcpPacketVelocityEncryptor.class);
 
+    private final List<ByteBuf> pendingBuffers = new ArrayList<>();
+    private final List<ChannelPromise> pendingPromises = new ArrayList<>();
+    private int pendingBytes;
+
     public TcpPacketVelocityEncryptor(SecretKey key) {
         try {
             this.velocityCipherDecrypt = Natives.cipher.get().forDecryption(key);
@@ -30,10 +49,41 @@ public class TcpPacketVelocityEncryptor extends MessageToMessageCodec<ByteBuf, B
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        this.releasePending(new IllegalStateException("Encryption handler removed before flush."));
         this.velocityCipherEncrypt.close();
         this.velocityCipherDecrypt.close();
     }
 
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            // Keep ordering intact for anything that bypasses encryption.
+            this.writePending(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+
+        ByteBuf buf = (ByteBuf) msg;
+        if (!buf.isReadable()) {
+            buf.release();
+            promise.trySuccess();
+            return;
+        }
+
+        this.pendingBuffers.add(buf);
+        this.pendingPromises.add(promise);
+        this.pendingBytes += buf.readableBytes();
+        if (this.pendingBytes >= MAX_COALESCED_BYTES) {
+            this.writePending(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        this.writePending(ctx);
+        ctx.flush();
+    }
+
     @Override
     protected void encode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) throws Exception {
         ByteBuf compatible = MoreByteBufUtils.ensureCompatible(ctx.alloc(), velocityCipherEncrypt, in);
@@ -57,4 +107,74 @@ public class TcpPacketVelocityEncryptor extends MessageToMessageCodec<ByteBuf, B
             throw e;
         }
     }
+
+    private void writePending(ChannelHandlerContext ctx) throws Exception {
+        int count = this.pendingBuffers.size();
+        if (count == 0) {
+            return;
+        }
+
+        if (count == 1) {
+            // Nothing to merge, encrypt in place like a regular encoder would.
+            ByteBuf in = this.pendingBuffers.get(0);
+            ChannelPromise promise = this.pendingPromises.get(0);
+            this.clearPending();
+
+            List<Object> out = new ArrayList<>(1);
+            try {
+                this.encode(ctx, in, out);
+            } catch (Exception e) {
+                promise.tryFailure(e);
+                throw e;
+            } finally {
+                in.release();
+            }
+
+            ctx.write(out.get(0), promise);
+            return;
+        }
+
+        ByteBuf merged = MoreByteBufUtils.preferredBuffer(ctx.alloc(), velocityCipherEncrypt, this.pendingBytes);
+        ChannelPromise[] promises = this.pendingPromises.toArray(new ChannelPromise[0]);
+        try {
+            for (ByteBuf buf : this.pendingBuffers) {
+                merged.writeBytes(buf);
+            }
+
+            velocityCipherEncrypt.process(merged);
+        } catch (Exception e) {
+            merged.release();
+            for (ChannelPromise promise : promises) {
+                promise.tryFailure(e);
+            }
+
+            throw e;
+        } finally {
+            for (ByteBuf buf : this.pendingBuffers) {
+                buf.release();
+            }
+
+            this.clearPending();
+        }
+
+        ctx.write(merged).addListener(new PromiseNotifier<Void, ChannelFuture>(false, promises));
+    }
+
+    private void releasePending(Throwable cause) {
+        for (ByteBuf buf : this.pendingBuffers) {
+            ReferenceCountUtil.safeRelease(buf);
+        }
+
+        for (ChannelPromise promise : this.pendingPromises) {
+            promise.tryFailure(cause);
+        }
+
+        this.clearPending();
+    }
+
+    private void clearPending() {
+        this.pendingBuffers.clear();
+        this.pendingPromises.clear();
+        this.pendingBytes = 0;
+    }
 }
@@ -0,0 +1,241 @@
+package com.github.steveice10.packetlib.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DefaultDnsRecordDecoder;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the addresses client sessions connect to, shared by all sessions of an
+ * event loop group.
+ *
+ * SRV answers are cached for their TTL, up to {@link #MAX_SRV_ENTRIES} names, A and AAAA
+ * answers by the underlying {@link DnsNameResolver}. Failed lookups of either kind are cached for
+ * {@link #NEGATIVE_TTL} seconds, and concurrent lookups of the same name share one query.
+ * The SRV record and the host itself are looked up at the same time, so a missing SRV
+ * record costs no extra round trip.
+ */
+class TcpResolver {
+    private static final Logger LOGGER = LoggerFactory.getLogger("PacketLib");
+    private static final Map<EventLoopGroup, TcpResolver> RESOLVERS = new ConcurrentHashMap<>();
+    private static final int NEGATIVE_TTL = 30;
+    private static final int MAX_SRV_ENTRIES = 1024;
+    private static final int MAX_CONSOLIDATED_LOOKUPS = 1024;
+
+    private final DnsNameResolver resolver;
+    private final Map<String, SrvEntry> srvCache = new ConcurrentHashMap<>();
+
+    private TcpResolver(EventLoopGroup group, Class<? extends DatagramChannel> channelClass) {
+        this.resolver = new DnsNameResolverBuilder(group.next())
+                .channelType(channelClass)
+                .negativeTtl(NEGATIVE_TTL)
+                .consolidateCacheSize(MAX_CONSOLIDATED_LOOKUPS)
+                .build();
+    }
+
+    /**
+     * Gets the resolver shared by sessions of the given event loop group, creating it
+     * on first use. It is closed once the group terminates.
+     *
+     * @param group        The event loop group.
+     * @param channelClass Datagram channel type of the group.
+     * @return The group's resolver.
+     */
+    static TcpResolver get(EventLoopGroup group, Class<? extends DatagramChannel> channelClass) {
+        TcpResolver resolver = RESOLVERS.get(group);
+        if (resolver != null) {
+            return resolver;
+        }
+
+        resolver = RESOLVERS.computeIfAbsent(group, g -> {
+            TcpResolver created = new TcpResolver(g, channelClass);
+            g.terminationFuture().addListener(f -> {
+                RESOLVERS.remove(g);
+                created.resolver.close();
+            });
+            return created;
+        });
+        return resolver;
+    }
+
+    /**
+     * Resolves the address to connect to for a host.
+     *
+     * @param host    Host to connect to.
+     * @param port    Port to connect to.
+     * @param srvName SRV record to look up first, or null to only resolve the host.
+     * @param debug   Whether to log the lookups.
+     * @return A future completed with the address to connect to. It names the SRV target if
+     *         one was found, and is unresolved if the host could not be resolved.
+     */
+    Future<InetSocketAddress> resolve(String host, int port, @Nullable String srvName, boolean debug) {
+        EventExecutor executor = this.resolver.executor();
+        if (NetUtil.isValidIpV4Address(host) || NetUtil.isValidIpV6Address(host)) {
+            try {
+                // Keep the literal as the host name so it is not replaced by another spelling of it.
+                InetAddress address = InetAddress.getByAddress(host, NetUtil.createByteArrayFromIpAddressString(host));
+                return executor.newSucceededFuture(new InetSocketAddress(address, port));
+            } catch (UnknownHostException e) {
+                return executor.newFailedFuture(e);
+            }
+        }
+
+        Promise<InetSocketAddress> promise = executor.newPromise();
+        Future<InetAddress> direct = this.resolver.resolve(host);
+        if (srvName == null || host.equalsIgnoreCase("localhost")) {
+            if (debug) {
+                LOGGER.debug("Not resolving SRV record for " + host);
+            }
+
+            this.complete(direct, host, port, promise, debug);
+            return promise;
+        }
+
+        if (debug) {
+            LOGGER.debug("Attempting SRV lookup for \"" + srvName + "\".");
+        }
+
+        this.lookupSrv(srvName, debug).addListener(f -> {
+            InetSocketAddress target = (InetSocketAddress) f.getNow();
+            if (target == null) {
+                this.complete(direct, host, port, promise, debug);
+            } else if (target.getHostString().equalsIgnoreCase(host)) {
+                this.complete(direct, host, target.getPort(), promise, debug);
+            } else {
+                this.complete(this.resolver.resolve(target.getHostString()), target.getHostString(), target.getPort(), promise, debug);
+            }
+        });
+        return promise;
+    }
+
+    private void complete(Future<InetAddress> lookup, String host, int port, Promise<InetSocketAddress> promise, boolean debug) {
+        lookup.addListener(f -> {
+            if (f.isSuccess()) {
+                InetAddress resolved = (InetAddress) f.getNow();
+                if (debug) {
+                    LOGGER.debug("Resolved {} -> {}", host, resolved.getHostAddress());
+                }
+
+                promise.trySuccess(new InetSocketAddress(InetAddress.getByAddress(host, resolved.getAddress()), port));
+            } else {
+                if (debug) {
+                    LOGGER.debug("Failed to resolve host, letting Netty do it instead.", f.cause());
+                }
+
+                promise.trySuccess(InetSocketAddress.createUnresolved(host, port));
+            }
+        });
+    }
+
+    private Future<InetSocketAddress> lookupSrv(String name, boolean debug) {
+        long now = System.nanoTime();
+        SrvEntry[] created = new SrvEntry[1];
+        SrvEntry entry = this.srvCache.compute(name, (key, current) -> {
+            if (current != null && current.isValid(now)) {
+                return current;
+            }
+
+            return created[0] = new SrvEntry(this.resolver.executor().newPromise());
+        });
+
+        if (entry == created[0]) {
+            if (this.srvCache.size() > MAX_SRV_ENTRIES) {
+                this.srvCache.values().removeIf(e -> !e.isValid(now));
+                if (this.srvCache.size() > MAX_SRV_ENTRIES) {
+                    // Still full of live entries, looked up without caching the answer.
+                    this.srvCache.remove(name, entry);
+                }
+            }
+
+            this.querySrv(name, entry, debug);
+        }
+
+        return entry.promise;
+    }
+
+    private void querySrv(String name, SrvEntry entry, boolean debug) {
+        this.resolver.query(new DefaultDnsQuestion(name, DnsRecordType.SRV)).addListener(f -> {
+            InetSocketAddress target = null;
+            long ttl = NEGATIVE_TTL;
+            if (f.isSuccess()) {
+                @SuppressWarnings("unchecked")
+                AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = (AddressedEnvelope<DnsResponse, InetSocketAddress>) f.getNow();
+                try {
+                    DnsResponse response = envelope.content();
+                    if (response.count(DnsSection.ANSWER) > 0) {
+                        DefaultDnsRawRecord record = response.recordAt(DnsSection.ANSWER, 0);
+                        if (record.type() == DnsRecordType.SRV) {
+                            ByteBuf buf = record.content().duplicate();
+                            buf.skipBytes(4); // Skip priority and weight.
+
+                            int port = buf.readUnsignedShort();
+                            String host = DefaultDnsRecordDecoder.decodeName(buf);
+                            if (host.endsWith(".")) {
+                                host = host.substring(0, host.length() - 1);
+                            }
+
+                            if (debug) {
+                                LOGGER.debug("Found SRV record containing \"" + host + ":" + port + "\".");
+                            }
+
+                            target = InetSocketAddress.createUnresolved(host, port);
+                            ttl = record.timeToLive();
+                        } else if (debug) {
+                            LOGGER.debug("Received non-SRV record in response.");
+                        }
+                    } else if (debug) {
+                        LOGGER.debug("No SRV record found.");
+                    }
+                } catch (Exception e) {
+                    if (debug) {
+                        LOGGER.debug("Failed to resolve SRV record.", e);
+                    }
+                } finally {
+                    envelope.release();
+                }
+            } else if (debug) {
+                LOGGER.debug("Failed to resolve SRV record.", f.cause());
+            }
+
+            entry.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+            entry.resolved = true;
+            entry.promise.trySuccess(target);
+        });
+    }
+
+    private static class SrvEntry {
+        private final Promise<InetSocketAddress> promise;
+        private volatile long expiresAt;
+        private volatile boolean resolved;
+
+        private SrvEntry(Promise<InetSocketAddress> promise) {
+            this.promise = promise;
+        }
+
+        private boolean isValid(long now) {
+            return !this.resolved || now - this.expiresAt < 0;
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package com.github.steveice10.packetlib.tcp;
 
 import com.github.steveice10.packetlib.AbstractServer;
-import com.github.steveice10.packetlib.BuiltinFlags;
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
+import com.github.steveice10.packetlib.executor.PacketHandlerExecutor;
 import com.github.steveice10.packetlib.helper.TransportHelper;
 import com.github.steveice10.packetlib.packet.PacketProtocol;
 import io.netty.bootstrap.ServerBootstrap;
@@ -24,12 +25,27 @@ public class TcpServer extends AbstractServer {
     private EventLoopGroup group;
     private Class<? extends ServerSocketChannel> serverSocketChannel;
     private Channel channel;
+    private PacketHandlerExecutor packetHandlerExecutor;
     private static final Logger LOGGER = LoggerFactory.getLogger(TcpServer.class);
 
     public TcpServer(String host, int port, Supplier<? extends PacketProtocol> protocol) {
         super(host, port, protocol);
     }
 
+    public PacketHandlerExecutor getPacketHandlerExecutor() {
+        return this.packetHandlerExecutor;
+    }
+
+    /**
+     * Sets the executor that sessions of this server handle non-priority packets on.
+     * When not set, sessions use the shared default executor.
+     *
+     * @param executor The packet handler executor.
+     */
+    public void setPacketHandlerExecutor(PacketHandlerExecutor executor) {
+        this.packetHandlerExecutor = executor;
+    }
+
     @Override
     public boolean isListening() {
         return this.channel != null && this.channel.isOpen();
@@ -63,6 +79,10 @@ public class TcpServer extends AbstractServer {
                 PacketProtocol protocol = createPacketProtocol();
 
                 TcpSession session = new TcpServerSession(address.getHostName(), address.getPort(), protocol, TcpServer.this);
+                if (packetHandlerExecutor != null) {
+                    session.setPacketHandlerExecutor(packetHandlerExecutor);
+                }
+
                 session.getPacketProtocol().newServerSession(TcpServer.this, session);
 
                 channel.config().setOption(ChannelOption.IP_TOS, 0x18);
@@ -75,6 +95,8 @@ public class TcpServer extends AbstractServer {
 
                 session.refreshReadTimeoutHandler(channel);
                 session.refreshWriteTimeoutHandler(channel);
+                session.refreshWriteBufferWaterMark(channel);
+                session.refreshHibernation(channel);
 
                 int size = protocol.getPacketHeader().getLengthSize();
                 if (size > 0) {
@@ -149,7 +171,7 @@ public class TcpServer extends AbstractServer {
                 }
             } else {
                 future.addListener((f) -> {
-                    if(!f.isSuccess() && getGlobalFlag(BuiltinFlags.PRINT_DEBUG, false)) {
+                    if(!f.isSuccess() && getGlobalFlag(BuiltinFlagKeys.PRINT_DEBUG, false)) {
                         LOGGER.error("Failed to asynchronously close connection listener.", f.cause());
                     }
                 });
@@ -1,54 +1,109 @@
 package com.github.steveice10.packetlib.tcp;
 
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
+import com.github.steveice10.packetlib.Flag;
+import com.github.steveice10.packetlib.FlagMap;
+import com.github.steveice10.packetlib.OutboundPolicy;
 import com.github.steveice10.packetlib.Session;
 import com.github.steveice10.packetlib.event.session.*;
+import com.github.steveice10.packetlib.executor.EventLoopPacketHandlerExecutor;
+import com.github.steveice10.packetlib.executor.PacketHandlerExecutor;
+import com.github.steveice10.packetlib.executor.SessionExecutor;
+import com.github.steveice10.packetlib.executor.VirtualThreadPacketHandlerExecutor;
+import com.github.steveice10.packetlib.packet.KeepAlive;
+import com.github.steveice10.packetlib.packet.OutboundPriority;
 import com.github.steveice10.packetlib.packet.Packet;
+import com.github.steveice10.packetlib.packet.PacketHandler;
+import com.github.steveice10.packetlib.packet.PacketLane;
 import com.github.steveice10.packetlib.packet.PacketProtocol;
 import io.netty.channel.*;
 import io.netty.handler.codec.EncoderException;
 import io.netty.handler.timeout.ReadTimeoutException;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.handler.timeout.WriteTimeoutException;
-import io.netty.handler.timeout.WriteTimeoutHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
 import java.net.ConnectException;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> implements Session {
     /**
-     * Controls whether non-priority packets are handled in a separate event loop
+     * Controls whether sessions hand non-priority packets to the shared
+     * {@link EventLoopPacketHandlerExecutor} when no executor has been set explicitly.
      */
     public static boolean USE_EVENT_LOOP_FOR_PACKETS = true;
-    private static EventLoopGroup PACKET_EVENT_LOOP;
+    /**
+     * Controls whether sessions without an explicitly set executor handle each session's
+     * non-priority packets on a dedicated virtual thread instead, when the JVM supports them.
+     */
+    public static boolean USE_VIRTUAL_THREADS_FOR_PACKETS = false;
+    private static PacketHandlerExecutor VIRTUAL_THREAD_EXECUTOR;
+    private static final Logger LOGGER = LoggerFactory.getLogger(TcpSession.class);
+    private static final long DECODE_ERROR_LOG_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    private static final AtomicLong NEXT_DECODE_ERROR_LOG = new AtomicLong(System.nanoTime());
+    private static final LongAdder SUPPRESSED_DECODE_ERRORS = new LongAdder();
 
     protected String host;
     protected int port;
     private final PacketProtocol protocol;
-    private final EventLoop eventLoop = createEventLoop();
+    private PacketHandlerExecutor packetHandlerExecutor = defaultPacketHandlerExecutor();
+    private SessionExecutor packetExecutor;
+    private Executor parallelExecutor;
+    private List<Packet> pendingPackets;
+    private final AtomicIntegerArray lanePending = new AtomicIntegerArray(PacketLane.values().length);
+    private final AtomicLongArray handledPackets = new AtomicLongArray(PacketLane.values().length);
+    private final AtomicLongArray decodeErrors = new AtomicLongArray(PacketDecodeError.values().length);
+    private final AtomicInteger totalPending = new AtomicInteger();
+    private volatile boolean readPaused;
+    private volatile boolean hibernating;
+    private int inboundHighWaterMark;
+    private int inboundLowWaterMark;
 
-    private int compressionThreshold = -1;
+    private volatile int compressionThreshold = -1;
     private int connectTimeout = 30;
-    private int readTimeout = 30;
-    private int writeTimeout = 0;
+    private volatile int readTimeout = 30;
+    private volatile int writeTimeout = 0;
+
+    private final FlagMap flags;
+    private final TcpSessionListeners listeners = new TcpSessionListeners();
 
-    private final Map<String, Object> flags = new HashMap<>();
-    private final List<SessionListener> listeners = new CopyOnWriteArrayList<>();
+    private final TcpOutboundQueue outboundQueue = new TcpOutboundQueue(this);
+    private volatile TcpKeepAlive keepAlive;
 
     private Channel channel;
-    protected boolean disconnected = false;
+    protected volatile boolean disconnected = false;
+    private final AtomicReference<Future<Void>> disconnectFuture = new AtomicReference<>();
 
     public TcpSession(String host, int port, PacketProtocol protocol) {
+        this(host, port, protocol, null);
+    }
+
+    /**
+     * Creates a session whose flags fall back to the given parent flags when unset.
+     */
+    protected TcpSession(String host, int port, PacketProtocol protocol, @Nullable FlagMap parentFlags) {
         this.host = host;
         this.port = port;
         this.protocol = protocol;
+        this.flags = new FlagMap(parentFlags);
     }
 
     @Override
@@ -87,12 +142,12 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
     @Override
     public Map<String, Object> getFlags() {
-        return Collections.unmodifiableMap(this.flags);
+        return this.flags.snapshot();
     }
 
     @Override
     public boolean hasFlag(String key) {
-        return this.flags.containsKey(key);
+        return this.flags.has(key);
     }
 
     @Override
@@ -103,26 +158,37 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
     @SuppressWarnings("unchecked")
     @Override
     public <T> T getFlag(String key, T def) {
-        Object value = this.flags.get(key);
-        if (value == null) {
-            return def;
-        }
-
-        try {
-            return (T) value;
-        } catch (ClassCastException e) {
-            throw new IllegalStateException("Tried to get flag \"" + key + "\" as the wrong type. Actual type: " + value.getClass().getName());
-        }
+        return (T) this.flags.get(key, def);
     }
 
     @Override
     public void setFlag(String key, Object value) {
-        this.flags.put(key, value);
+        this.flags.set(key, value);
+    }
+
+    @Override
+    public boolean hasFlag(Flag<?> flag) {
+        return this.flags.has(flag);
+    }
+
+    @Override
+    public <T> T getFlag(Flag<T> flag) {
+        return this.flags.get(flag);
+    }
+
+    @Override
+    public <T> T getFlag(Flag<T> flag, T def) {
+        return this.flags.get(flag, def);
+    }
+
+    @Override
+    public <T> void setFlag(Flag<T> flag, T value) {
+        this.flags.set(flag, value);
     }
 
     @Override
     public List<SessionListener> getListeners() {
-        return Collections.unmodifiableList(this.listeners);
+        return this.listeners.getListeners();
     }
 
     @Override
@@ -138,7 +204,7 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
     @Override
     public void callEvent(SessionEvent event) {
         try {
-            for (SessionListener listener : this.listeners) {
+            for (SessionListener listener : this.listeners.get().observing(event)) {
                 event.call(listener);
             }
         } catch (Throwable t) {
@@ -146,21 +212,76 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
         }
     }
 
+    /**
+     * Gets whether a direct send or pipeline change is waiting for queued packets, so
+     * packets written around the queue would overtake it.
+     */
+    boolean hasPendingBarrier() {
+        return this.outboundQueue.hasBarrier();
+    }
+
+    boolean hasPacketErrorListeners() {
+        return this.listeners.get().error().length > 0;
+    }
+
     @Override
     public void callPacketReceived(Packet packet) {
         try {
-            for (SessionListener listener : this.listeners) {
+            PacketHandler<Packet> handler = this.getPacketHandler(packet);
+            if (handler != null) {
+                handler.handle(this, packet);
+            }
+
+            TcpSessionListeners.Snapshot listeners = this.listeners.get();
+            for (SessionListener listener : listeners.received()) {
                 listener.packetReceived(this, packet);
             }
+
+            if (listeners.batch().length > 0) {
+                List<Packet> batch = Collections.singletonList(packet);
+                for (PacketBatchListener listener : listeners.batch()) {
+                    listener.packetsReceived(this, batch);
+                }
+            }
         } catch (Throwable t) {
             exceptionCaught(null, t);
         }
     }
 
+    @Override
+    public void callPacketsReceived(List<Packet> packets) {
+        try {
+            TcpSessionListeners.Snapshot listeners = this.listeners.get();
+            for (Packet packet : packets) {
+                PacketHandler<Packet> handler = this.getPacketHandler(packet);
+                if (handler != null) {
+                    handler.handle(this, packet);
+                }
+
+                for (SessionListener listener : listeners.received()) {
+                    listener.packetReceived(this, packet);
+                }
+            }
+
+            if (listeners.batch().length > 0) {
+                List<Packet> batch = Collections.unmodifiableList(packets);
+                for (PacketBatchListener listener : listeners.batch()) {
+                    listener.packetsReceived(this, batch);
+                }
+            }
+        } catch (Throwable t) {
+            exceptionCaught(null, t);
+        }
+    }
+
+    private @Nullable PacketHandler<Packet> getPacketHandler(Packet packet) {
+        return this.protocol.getHandler(packet);
+    }
+
     @Override
     public void callPacketSent(Packet packet) {
         try {
-            for (SessionListener listener : this.listeners) {
+            for (SessionListener listener : this.listeners.get().sent()) {
                 listener.packetSent(this, packet);
             }
         } catch (Throwable t) {
@@ -175,24 +296,34 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
     @Override
     public void setCompressionThreshold(int threshold, boolean validateDecompression) {
-        this.compressionThreshold = threshold;
-        if (this.channel != null) {
-            if (this.compressionThreshold >= 0) {
-                if (this.channel.pipeline().get("compression") == null) {
-                    this.channel.pipeline().addAfter("sizer", "compression", new TcpPacketVelocityCompression(this, validateDecompression));
+        Channel channel = this.channel;
+        if (channel == null) {
+            this.compressionThreshold = threshold;
+            return;
+        }
+
+        // Applied once the packets sent before are written, so they keep the old encoding.
+        this.outboundQueue.runAfterQueued(channel, () -> {
+            this.compressionThreshold = threshold;
+            if (threshold >= 0) {
+                if (channel.pipeline().get("compression") == null) {
+                    channel.pipeline().addAfter("sizer", "compression", new TcpPacketVelocityCompression(this, validateDecompression));
                 }
-            } else if (this.channel.pipeline().get("compression") != null) {
-                this.channel.pipeline().remove("compression");
+            } else if (channel.pipeline().get("compression") != null) {
+                channel.pipeline().remove("compression");
             }
-        }
+        });
     }
 
     @Override
     public void enableEncryption(SecretKey key) {
+        Channel channel = this.channel;
         if (channel == null) {
             throw new IllegalStateException("Connect the client before initializing encryption!");
         }
-        channel.pipeline().addBefore("sizer", "encryption", new TcpPacketVelocityEncryptor(key));
+
+        TcpPacketVelocityEncryptor encryptor = new TcpPacketVelocityEncryptor(key);
+        this.outboundQueue.runAfterQueued(channel, () -> channel.pipeline().addBefore("sizer", "encryption", encryptor));
     }
 
     @Override
@@ -234,35 +365,66 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
     @Override
     public void send(Packet packet) {
-        if(this.channel == null) {
+        Channel channel = this.channel;
+        if(channel == null) {
             return;
         }
 
-        PacketSendingEvent sendingEvent = new PacketSendingEvent(this, packet);
-        this.callEvent(sendingEvent);
+        Packet toSend = packet;
+        if (this.listeners.get().sending().length > 0) {
+            PacketSendingEvent sendingEvent = new PacketSendingEvent(this, packet);
+            this.callEvent(sendingEvent);
+            if (sendingEvent.isCancelled()) {
+                return;
+            }
 
-        if (!sendingEvent.isCancelled()) {
-            final Packet toSend = sendingEvent.getPacket();
-            this.channel.writeAndFlush(toSend).addListener((ChannelFutureListener) future -> {
-                if(future.isSuccess()) {
-                    callPacketSent(toSend);
-                } else {
-                    exceptionCaught(null, future.cause());
-                }
-            });
+            toSend = sendingEvent.getPacket();
+        }
+
+        if (this.outboundQueue.offer(channel, toSend)) {
+            this.writePacket(toSend, true);
         }
     }
 
+    void writePacket(Packet packet, boolean flush) {
+        if (this.hibernating) {
+            this.hibernating = false;
+        }
+
+        if (this.listeners.get().sent().length == 0) {
+            // Nothing to notify, write failures reach exceptionCaught through the pipeline.
+            if (flush) {
+                this.channel.writeAndFlush(packet, this.channel.voidPromise());
+            } else {
+                this.channel.write(packet, this.channel.voidPromise());
+            }
+
+            return;
+        }
+
+        ChannelFuture future = flush ? this.channel.writeAndFlush(packet) : this.channel.write(packet);
+        future.addListener((ChannelFutureListener) f -> {
+            if(f.isSuccess()) {
+                callPacketSent(packet);
+            } else {
+                exceptionCaught(null, f.cause());
+            }
+        });
+    }
+
     @Override
     public void sendDirect(Packet packet) {
-        if(this.channel == null) {
+        Channel channel = this.channel;
+        if(channel == null) {
             return;
         }
-        this.channel.writeAndFlush(packet).addListener((ChannelFutureListener) future -> {
+
+        // Written once the packets sent before it are, so it does not overtake them.
+        this.outboundQueue.runAfterQueued(channel, () -> channel.writeAndFlush(packet).addListener((ChannelFutureListener) future -> {
             if(!future.isSuccess()) {
                 exceptionCaught(null, future.cause());
             }
-        });
+        }));
     }
 
     @Override
@@ -272,34 +434,313 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
     @Override
     public void disconnect(final String reason, final Throwable cause) {
-        if (this.disconnected) {
-            return;
+        this.disconnectAsync(reason, cause);
+    }
+
+    @Override
+    public Future<Void> disconnectAsync(String reason) {
+        return this.disconnectAsync(reason, null);
+    }
+
+    @Override
+    public Future<Void> disconnectAsync(final String reason, final Throwable cause) {
+        Future<Void> existing = this.disconnectFuture.get();
+        if (existing != null) {
+            return existing;
+        }
+
+        // Only the caller publishing its promise disconnects, everyone else gets that promise.
+        Channel channel = this.channel;
+        boolean open = channel != null && channel.isOpen();
+        Promise<Void> promise = open ? channel.eventLoop().newPromise() : GlobalEventExecutor.INSTANCE.newPromise();
+        if (!this.disconnectFuture.compareAndSet(null, promise)) {
+            return this.disconnectFuture.get();
         }
 
         this.disconnected = true;
 
-        if (this.channel != null && this.channel.isOpen()) {
-            this.callEvent(new DisconnectingEvent(this, reason, cause));
-            try {
-                this.channel.flush().close().await(5, TimeUnit.SECONDS);
-            } catch (final Exception e) {
-                this.exceptionCaught(null, e);
-            }
-            callEvent(new DisconnectedEvent(this, reason != null ? reason : "Connection closed.", cause));
+        String message = reason != null ? reason : "Connection closed.";
+        if (!open) {
+            this.finishDisconnect(message, cause);
+            promise.trySuccess(null);
+            return promise;
+        }
+
+        this.callEvent(new DisconnectingEvent(this, reason, cause));
+
+        // Queued packets are written out, apart from a bulk backlog the channel cannot take,
+        // and the channel closed on its own event loop, so the caller never waits for the
+        // connection to go away.
+        Runnable close = () -> {
+            this.outboundQueue.drainForClose(channel);
+            channel.flush().close().addListener((ChannelFutureListener) future -> {
+                this.finishDisconnect(message, cause);
+                if (future.isSuccess()) {
+                    promise.trySuccess(null);
+                } else {
+                    promise.tryFailure(future.cause());
+                }
+            });
+        };
+
+        if (channel.eventLoop().inEventLoop()) {
+            close.run();
         } else {
-            this.callEvent(new DisconnectedEvent(this, reason != null ? reason : "Connection closed.", cause));
+            channel.eventLoop().execute(close);
+        }
+
+        return promise;
+    }
+
+    private void finishDisconnect(String message, Throwable cause) {
+        this.callEvent(new DisconnectedEvent(this, message, cause));
+        if (this.packetExecutor != null) {
+            this.packetExecutor.close();
+        }
+
+        this.outboundQueue.clear();
+        TcpKeepAlive keepAlive = this.keepAlive;
+        if (keepAlive != null) {
+            keepAlive.stop();
         }
     }
 
-    private @Nullable EventLoop createEventLoop() {
-        if (!USE_EVENT_LOOP_FOR_PACKETS) {
-            return null;
+    private static synchronized @Nullable PacketHandlerExecutor defaultPacketHandlerExecutor() {
+        if (USE_VIRTUAL_THREADS_FOR_PACKETS && VirtualThreadPacketHandlerExecutor.isSupported()) {
+            if (VIRTUAL_THREAD_EXECUTOR == null) {
+                try {
+                    VIRTUAL_THREAD_EXECUTOR = new VirtualThreadPacketHandlerExecutor();
+                } catch (UnsupportedOperationException e) {
+                    // Fall back rather than failing every session constructed from here on.
+                    LOGGER.warn("Virtual threads are unavailable, handling packets on the event loop instead.", e);
+                    USE_VIRTUAL_THREADS_FOR_PACKETS = false;
+                    return USE_EVENT_LOOP_FOR_PACKETS ? EventLoopPacketHandlerExecutor.shared() : null;
+                }
+            }
+
+            return VIRTUAL_THREAD_EXECUTOR;
         }
 
-        if (PACKET_EVENT_LOOP == null) {
-            PACKET_EVENT_LOOP = new DefaultEventLoopGroup();
+        return USE_EVENT_LOOP_FOR_PACKETS ? EventLoopPacketHandlerExecutor.shared() : null;
+    }
+
+    /**
+     * Gets the executor that non-priority packets are handled on.
+     *
+     * @return The packet handler executor, or null if packets are handled on the network thread.
+     */
+    public @Nullable PacketHandlerExecutor getPacketHandlerExecutor() {
+        return this.packetHandlerExecutor;
+    }
+
+    /**
+     * Sets the executor that non-priority packets are handled on. Must be called before
+     * the session is connected.
+     *
+     * @param executor The packet handler executor, or null to handle packets on the network thread.
+     */
+    public void setPacketHandlerExecutor(@Nullable PacketHandlerExecutor executor) {
+        if (this.channel != null) {
+            throw new IllegalStateException("Cannot change the packet handler executor of a connected session.");
         }
-        return PACKET_EVENT_LOOP.next();
+
+        this.packetHandlerExecutor = executor;
+    }
+
+    /**
+     * Gets what this session does with non-priority packets sent while it is not writable.
+     *
+     * @return The session's outbound policy.
+     */
+    public OutboundPolicy getOutboundPolicy() {
+        return this.outboundQueue.getPolicy();
+    }
+
+    /**
+     * Sets what this session does with non-priority packets sent while it is not writable.
+     *
+     * @param policy The outbound policy.
+     */
+    public void setOutboundPolicy(OutboundPolicy policy) {
+        this.outboundQueue.setPolicy(policy);
+    }
+
+    /**
+     * Gets whether queued packets with a conflation key are replaced by newer ones
+     * with the same key.
+     *
+     * @return Whether conflation is enabled.
+     * @see com.github.steveice10.packetlib.packet.PacketProtocol#setConflationKey(Class, java.util.function.Function)
+     */
+    public boolean isConflationEnabled() {
+        return this.outboundQueue.isConflationEnabled();
+    }
+
+    /**
+     * Sets whether queued packets with a conflation key are replaced by newer ones with
+     * the same key. Packets are only held for conflation while the channel is not writable
+     * or other packets are queued, and may then be written after packets sent later.
+     * Otherwise they are written in order like any other packet.
+     *
+     * @param conflation Whether conflation is enabled.
+     */
+    public void setConflationEnabled(boolean conflation) {
+        this.outboundQueue.setConflationEnabled(conflation);
+    }
+
+    /**
+     * Gets the rate {@link OutboundPriority#BULK} packets
+     * are paced at.
+     *
+     * @return The pacing rate in bytes per second, or 0 if pacing is disabled.
+     */
+    public long getPacingRate() {
+        return this.outboundQueue.getPacingRate();
+    }
+
+    /**
+     * Sets the rate {@link OutboundPriority#BULK} packets
+     * are paced at, spreading large bursts over time instead of filling the socket buffer at once.
+     * Packets of other priority classes are not paced. Bursts are limited to one round trip
+     * worth of data once {@link #setKeepAlive(KeepAlive, long, TimeUnit) keep-alive pings} measured it.
+     * Bytes are counted as framed on the wire, after compression.
+     *
+     * @param bytesPerSecond Pacing rate in bytes per second, or 0 to disable pacing.
+     */
+    public void setPacingRate(long bytesPerSecond) {
+        this.outboundQueue.setPacingRate(bytesPerSecond);
+    }
+
+    /**
+     * Gets the number of queued {@link OutboundPriority#BULK} packets kept in memory before
+     * further ones are spilled to disk.
+     *
+     * @return The spill threshold in packets, or 0 if spilling is disabled.
+     */
+    public int getSpillThreshold() {
+        return this.outboundQueue.getSpillThreshold();
+    }
+
+    /**
+     * Sets the number of queued {@link OutboundPriority#BULK} packets kept in memory before
+     * further ones are serialized into a memory-mapped temporary file. Spilled packets are
+     * read back and written as the channel becomes writable, in the order they were sent.
+     * Once the file has grown to 256MB, further bulk packets are dropped and counted by
+     * {@link #getDroppedPackets()}, as are packets that fail to serialize or cannot be
+     * written to the file. Spilling runs on the thread sending the packet, which may be the
+     * event loop: the file is created on first use and remapped each time it doubles in
+     * size, otherwise each spilled packet costs one copy into the mapped file.
+     *
+     * Spilled packets are not kept, so {@link com.github.steveice10.packetlib.event.session.SessionListener#packetSent}
+     * receives a {@link com.github.steveice10.packetlib.packet.BufferedPacket} holding the
+     * serialized body instead of the packet that was sent. Its
+     * {@link com.github.steveice10.packetlib.packet.BufferedPacket#getPacketClass()} gives
+     * the original packet class.
+     *
+     * @param packets Spill threshold in packets, or 0 to disable spilling.
+     */
+    public void setSpillThreshold(int packets) {
+        this.outboundQueue.setSpillThreshold(packets);
+    }
+
+    /**
+     * Gets the number of packets currently spilled to disk.
+     *
+     * @return The number of spilled packets.
+     */
+    public int getSpilledPackets() {
+        return this.outboundQueue.getSpilledPackets();
+    }
+
+    /**
+     * Gets the number of packets this session dropped or replaced because of its outbound policy
+     * or conflation.
+     *
+     * @return The number of dropped packets.
+     */
+    public long getDroppedPackets() {
+        return this.outboundQueue.getDroppedPackets();
+    }
+
+    /**
+     * Gets the number of held packets waiting to be written.
+     *
+     * @return The number of held packets.
+     */
+    public int getHeldPackets() {
+        return this.outboundQueue.getHeldPackets();
+    }
+
+    /**
+     * Gets the number of sent packets of the given scheduling class that are queued
+     * and have not been handed to the channel yet.
+     *
+     * @param priority The scheduling class.
+     * @return The number of queued packets.
+     */
+    public int getQueuedPackets(OutboundPriority priority) {
+        return this.outboundQueue.getQueuedPackets(priority);
+    }
+
+    /**
+     * Gets the number of packet handling tasks of this session that have not finished yet.
+     *
+     * @return The session's handler queue depth.
+     */
+    public int getPendingPacketTasks() {
+        SessionExecutor executor = this.packetExecutor;
+        return executor != null ? executor.getPendingTasks() : 0;
+    }
+
+    /**
+     * Gets whether this session is the client side of a connection, meaning it receives
+     * clientbound packets.
+     *
+     * @return Whether this is a client session.
+     */
+    protected boolean isClient() {
+        return false;
+    }
+
+    /**
+     * Gets the number of received packets on the given lane that are waiting to be handled
+     * or are being handled.
+     *
+     * @param lane The lane to get the queue depth of.
+     * @return The lane's queue depth.
+     */
+    public int getPendingPackets(PacketLane lane) {
+        return this.lanePending.get(lane.ordinal());
+    }
+
+    /**
+     * Gets the number of received packets that are waiting to be handled or are being
+     * handled off the network thread.
+     *
+     * @return The session's inbound queue depth.
+     */
+    public int getPendingPackets() {
+        return this.totalPending.get();
+    }
+
+    /**
+     * Gets whether this session stopped reading from its connection because too many
+     * received packets are waiting to be handled.
+     *
+     * @return Whether reading is paused.
+     */
+    public boolean isReadPaused() {
+        return this.readPaused;
+    }
+
+    /**
+     * Gets the number of received packets that have been handled on the given lane.
+     *
+     * @param lane The lane to get the count of.
+     * @return The number of handled packets.
+     */
+    public long getHandledPackets(PacketLane lane) {
+        return this.handledPackets.get(lane.ordinal());
     }
 
     public Channel getChannel() {
@@ -311,19 +752,7 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
     }
 
     protected void refreshReadTimeoutHandler(Channel channel) {
-        if (channel != null) {
-            if (this.readTimeout <= 0) {
-                if (channel.pipeline().get("readTimeout") != null) {
-                    channel.pipeline().remove("readTimeout");
-                }
-            } else {
-                if (channel.pipeline().get("readTimeout") == null) {
-                    channel.pipeline().addFirst("readTimeout", new ReadTimeoutHandler(this.readTimeout));
-                } else {
-                    channel.pipeline().replace("readTimeout", "readTimeout", new ReadTimeoutHandler(this.readTimeout));
-                }
-            }
-        }
+        this.refreshTimeoutHandler(channel);
     }
 
     protected void refreshWriteTimeoutHandler() {
@@ -331,21 +760,156 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
     }
 
     protected void refreshWriteTimeoutHandler(Channel channel) {
+        this.refreshTimeoutHandler(channel);
+    }
+
+    private void refreshTimeoutHandler(Channel channel) {
         if (channel != null) {
-            if (this.writeTimeout <= 0) {
-                if (channel.pipeline().get("writeTimeout") != null) {
-                    channel.pipeline().remove("writeTimeout");
+            TcpTimeoutHandler handler = (TcpTimeoutHandler) channel.pipeline().get("timeout");
+            if (this.readTimeout <= 0 && this.writeTimeout <= 0 && this.getFlag(BuiltinFlagKeys.HIBERNATE_AFTER) <= 0) {
+                if (handler != null) {
+                    channel.pipeline().remove(handler);
                 }
+            } else if (handler == null) {
+                channel.pipeline().addFirst("timeout", new TcpTimeoutHandler(this));
             } else {
-                if (channel.pipeline().get("writeTimeout") == null) {
-                    channel.pipeline().addFirst("writeTimeout", new WriteTimeoutHandler(this.writeTimeout));
-                } else {
-                    channel.pipeline().replace("writeTimeout", "writeTimeout", new WriteTimeoutHandler(this.writeTimeout));
-                }
+                handler.refresh();
             }
         }
     }
 
+    protected void refreshHibernation(Channel channel) {
+        // Idle sessions are hibernated by the shared timeout timer.
+        this.refreshTimeoutHandler(channel);
+    }
+
+    /**
+     * Releases resources that are recreated on demand, currently the native compression
+     * context and an empty spill file. Partial frames are not held between reads either,
+     * as {@link TcpPacketSizer} already releases its cumulation once it is consumed. Sessions
+     * hibernate on their own after the {@link BuiltinFlagKeys#HIBERNATE_AFTER} quiet period
+     * and wake up on their next read or write. Runs on the channel's event loop.
+     */
+    public void hibernate() {
+        Channel channel = this.channel;
+        if (channel == null) {
+            return;
+        }
+
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(this::hibernate);
+            return;
+        }
+
+        TcpPacketVelocityCompression compression = channel.pipeline().get(TcpPacketVelocityCompression.class);
+        if (compression != null) {
+            compression.hibernate();
+        }
+
+        this.outboundQueue.hibernate();
+        this.hibernating = true;
+    }
+
+    /**
+     * Gets whether this session has hibernated and not read or written since.
+     *
+     * @return Whether this session is hibernating.
+     */
+    public boolean isHibernating() {
+        return this.hibernating;
+    }
+
+    /**
+     * Gets the keep-alive this session pings its peer with.
+     *
+     * @return The keep-alive, or null if keep-alive pings are disabled.
+     */
+    public @Nullable KeepAlive getKeepAlive() {
+        TcpKeepAlive keepAlive = this.keepAlive;
+        return keepAlive != null ? keepAlive.getKeepAlive() : null;
+    }
+
+    /**
+     * Enables or disables keep-alive pings. While connected, the session sends a ping
+     * created by the keep-alive every interval and measures the time until the matching
+     * response is received. Responses are still passed to listeners. Pings are scheduled
+     * on a timer shared by all sessions and written ahead of queued packets, without
+     * {@link com.github.steveice10.packetlib.event.session.PacketSendingEvent}s. Replacing
+     * the keep-alive resets the measured round-trip times.
+     *
+     * Pings and their responses count as activity, so a session pinging more often than
+     * its {@link BuiltinFlagKeys#HIBERNATE_AFTER} period never hibernates, and each ping
+     * sent to a hibernating session wakes it and recreates its compression context.
+     *
+     * @param keepAlive Keep-alive to ping the peer with, or null to disable pings.
+     * @param interval  Time between pings.
+     * @param unit      Unit of the interval.
+     */
+    public void setKeepAlive(@Nullable KeepAlive keepAlive, long interval, TimeUnit unit) {
+        if (keepAlive != null && interval <= 0) {
+            throw new IllegalArgumentException("Keep-alive interval must be positive");
+        }
+
+        TcpKeepAlive previous = this.keepAlive;
+        if (previous != null) {
+            previous.stop();
+        }
+
+        TcpKeepAlive next = keepAlive != null ? new TcpKeepAlive(this, keepAlive, unit.toNanos(interval)) : null;
+        this.keepAlive = next;
+        if (next != null && this.isConnected()) {
+            next.start();
+        }
+    }
+
+    /**
+     * Gets the smoothed round-trip time measured by keep-alive pings.
+     *
+     * @param unit Unit to return the round-trip time in.
+     * @return The smoothed round-trip time, or -1 if none was measured yet.
+     */
+    public long getRtt(TimeUnit unit) {
+        TcpKeepAlive keepAlive = this.keepAlive;
+        return keepAlive != null ? toUnit(keepAlive.getRtt(), unit) : -1;
+    }
+
+    /**
+     * Gets the lowest round-trip time measured by keep-alive pings.
+     *
+     * @param unit Unit to return the round-trip time in.
+     * @return The lowest round-trip time, or -1 if none was measured yet.
+     */
+    public long getMinRtt(TimeUnit unit) {
+        TcpKeepAlive keepAlive = this.keepAlive;
+        return keepAlive != null ? toUnit(keepAlive.getMinRtt(), unit) : -1;
+    }
+
+    /**
+     * Gets the highest round-trip time measured by keep-alive pings.
+     *
+     * @param unit Unit to return the round-trip time in.
+     * @return The highest round-trip time, or -1 if none was measured yet.
+     */
+    public long getMaxRtt(TimeUnit unit) {
+        TcpKeepAlive keepAlive = this.keepAlive;
+        return keepAlive != null ? toUnit(keepAlive.getMaxRtt(), unit) : -1;
+    }
+
+    private static long toUnit(long nanos, TimeUnit unit) {
+        return nanos < 0 ? -1 : unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    protected void refreshWriteBufferWaterMark(Channel channel) {
+        Integer high = this.getFlag(BuiltinFlagKeys.WRITE_BUFFER_HIGH_WATER_MARK);
+        Integer low = this.getFlag(BuiltinFlagKeys.WRITE_BUFFER_LOW_WATER_MARK);
+        if (high != null || low != null) {
+            WriteBufferWaterMark current = channel.config().getWriteBufferWaterMark();
+            int highMark = high != null ? high : Math.max(current.high(), low);
+            int lowMark = low != null ? low : Math.min(current.low(), highMark);
+            channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(lowMark, highMark));
+        }
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         if (this.disconnected || this.channel != null) {
@@ -354,17 +918,75 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
         }
 
         this.channel = ctx.channel();
+        this.inboundHighWaterMark = this.getFlag(BuiltinFlagKeys.INBOUND_HIGH_WATER_MARK, 0);
+        this.inboundLowWaterMark = this.getFlag(BuiltinFlagKeys.INBOUND_LOW_WATER_MARK, this.inboundHighWaterMark / 2);
+        if (this.packetHandlerExecutor != null) {
+            this.packetExecutor = this.packetHandlerExecutor.createSessionExecutor(this);
+            this.parallelExecutor = this.packetHandlerExecutor.getParallelExecutor();
+        }
 
         this.callEvent(new ConnectedEvent(this));
+        TcpKeepAlive keepAlive = this.keepAlive;
+        if (keepAlive != null) {
+            keepAlive.start();
+        }
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.submitPendingPackets();
         if (ctx.channel() == this.channel) {
             this.disconnect("Connection closed.");
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable = ctx.channel().isWritable();
+        if (this.listeners.get().writability().length > 0) {
+            this.callEvent(new WritabilityChangedEvent(this, writable));
+        }
+        if (writable) {
+            this.outboundQueue.drain(ctx.channel());
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * Gets the number of bytes this session currently holds to accumulate partially
+     * received frames.
+     *
+     * @return The retained inbound buffer capacity in bytes.
+     */
+    public int getRetainedInboundBytes() {
+        Channel channel = this.channel;
+        TcpPacketSizer sizer = channel != null ? channel.pipeline().get(TcpPacketSizer.class) : null;
+        return sizer != null ? sizer.getRetainedBytes() : 0;
+    }
+
+    /**
+     * Gets the number of times incoming data failed to decode for the given reason.
+     *
+     * @param error Reason to get the count for.
+     * @return The number of decode errors.
+     */
+    public long getDecodeErrors(PacketDecodeError error) {
+        return this.decodeErrors.get(error.ordinal());
+    }
+
+    private static void logDecodeError(TcpSession session, PacketDecodeError error) {
+        // At most one line per interval, no matter how many sessions send garbage.
+        long now = System.nanoTime();
+        long next = NEXT_DECODE_ERROR_LOG.get();
+        if (now - next < 0 || !NEXT_DECODE_ERROR_LOG.compareAndSet(next, now + DECODE_ERROR_LOG_INTERVAL)) {
+            SUPPRESSED_DECODE_ERRORS.increment();
+            return;
+        }
+
+        LOGGER.warn("Failed to decode packet from {}: {} ({} similar errors suppressed)", session.getRemoteAddress(), error.getMessage(), SUPPRESSED_DECODE_ERRORS.sumThenReset());
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         String message;
@@ -376,6 +998,11 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
             message = "Write timed out.";
         } else if (cause instanceof EncoderException) {
             return;
+        } else if (cause instanceof PacketDecodeException) {
+            PacketDecodeError error = ((PacketDecodeException) cause).getError();
+            this.decodeErrors.incrementAndGet(error.ordinal());
+            logDecodeError(this, error);
+            message = error.getMessage();
         } else {
             message = cause.toString();
         }
@@ -385,10 +1012,126 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Packet packet) {
-        if (!packet.isPriority() && eventLoop != null) {
-            eventLoop.execute(() -> this.callPacketReceived(packet));
-        } else {
-            this.callPacketReceived(packet);
+        if (this.hibernating) {
+            this.hibernating = false;
+        }
+
+        TcpKeepAlive keepAlive = this.keepAlive;
+        if (keepAlive != null) {
+            keepAlive.received(packet);
+        }
+
+        switch (this.getPacketLane(packet)) {
+            case INLINE -> {
+                this.callPacketReceived(packet);
+                this.handledPackets.incrementAndGet(PacketLane.INLINE.ordinal());
+            }
+            case ORDERED -> {
+                // Handed off together once the current read is complete.
+                if (this.pendingPackets == null) {
+                    this.pendingPackets = new ArrayList<>();
+                }
+
+                this.pendingPackets.add(packet);
+            }
+            case PARALLEL -> {
+                if (this.disconnected) {
+                    // A handler disconnected during this read, the executor may be closed.
+                    return;
+                }
+
+                this.packetsQueued(PacketLane.PARALLEL, 1);
+                try {
+                    this.parallelExecutor.execute(() -> {
+                        try {
+                            this.callPacketReceived(packet);
+                        } finally {
+                            this.packetsHandled(PacketLane.PARALLEL, 1);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    this.packetsRejected(PacketLane.PARALLEL, 1);
+                }
+            }
+        }
+    }
+
+    private PacketLane getPacketLane(Packet packet) {
+        if (this.packetExecutor == null) {
+            return PacketLane.INLINE;
+        }
+
+        PacketLane lane = this.protocol.getLane(packet);
+        if (lane == null) {
+            return packet.isPriority() ? PacketLane.INLINE : PacketLane.ORDERED;
+        }
+
+        return lane;
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        this.submitPendingPackets();
+        super.channelReadComplete(ctx);
+    }
+
+    private void submitPendingPackets() {
+        List<Packet> packets = this.pendingPackets;
+        if (packets == null) {
+            return;
+        }
+
+        this.pendingPackets = null;
+        if (this.disconnected) {
+            // A handler disconnected during this read, the executor may be closed.
+            return;
+        }
+
+        this.packetsQueued(PacketLane.ORDERED, packets.size());
+        try {
+            this.packetExecutor.execute(() -> {
+                try {
+                    this.callPacketsReceived(packets);
+                } finally {
+                    this.packetsHandled(PacketLane.ORDERED, packets.size());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.packetsRejected(PacketLane.ORDERED, packets.size());
+        }
+    }
+
+    // Called on the network thread only.
+    private void packetsQueued(PacketLane lane, int count) {
+        this.lanePending.addAndGet(lane.ordinal(), count);
+        int pending = this.totalPending.addAndGet(count);
+        if (this.inboundHighWaterMark > 0 && pending > this.inboundHighWaterMark && !this.readPaused) {
+            this.readPaused = true;
+            this.channel.config().setAutoRead(false);
+            // Handlers may have caught up before the pause became visible to them.
+            this.resumeRead();
+        }
+    }
+
+    // Undoes packetsQueued for packets the executor rejected, such as after it was closed.
+    private void packetsRejected(PacketLane lane, int count) {
+        this.lanePending.addAndGet(lane.ordinal(), -count);
+        this.totalPending.addAndGet(-count);
+    }
+
+    private void packetsHandled(PacketLane lane, int count) {
+        this.lanePending.addAndGet(lane.ordinal(), -count);
+        this.handledPackets.addAndGet(lane.ordinal(), count);
+        int pending = this.totalPending.addAndGet(-count);
+        if (this.readPaused && pending <= this.inboundLowWaterMark) {
+            this.channel.eventLoop().execute(this::resumeRead);
+        }
+    }
+
+    private void resumeRead() {
+        if (this.readPaused && this.totalPending.get() <= this.inboundLowWaterMark) {
+            this.readPaused = false;
+            this.channel.config().setAutoRead(true);
         }
     }
 }
@@ -0,0 +1,146 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.Session;
+import com.github.steveice10.packetlib.event.session.*;
+import com.github.steveice10.packetlib.packet.Packet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The listeners of a session, indexed by the events they observe.
+ *
+ * A listener observes an event if it overrides the matching {@link SessionAdapter}
+ * method, or implements the {@link SessionListener} method without relying on its
+ * default. The arrays are rebuilt when listeners change, so dispatch only reads one
+ * volatile field and callers can skip creating events that no listener observes.
+ */
+class TcpSessionListeners {
+    private static final SessionListener[] EMPTY = new SessionListener[0];
+    private static final PacketBatchListener[] EMPTY_BATCH = new PacketBatchListener[0];
+
+    private static final int RECEIVED = 1;
+    private static final int SENDING = 1 << 1;
+    private static final int SENT = 1 << 2;
+    private static final int ERROR = 1 << 3;
+    private static final int WRITABILITY = 1 << 4;
+    private static final int CONNECTED = 1 << 5;
+    private static final int DISCONNECTING = 1 << 6;
+    private static final int DISCONNECTED = 1 << 7;
+
+    private static final ClassValue<Integer> OBSERVED = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return observed(type);
+        }
+    };
+
+    private final List<SessionListener> listeners = new ArrayList<>();
+    private volatile Snapshot snapshot = new Snapshot(EMPTY, EMPTY, EMPTY_BATCH, EMPTY, EMPTY, EMPTY, EMPTY, EMPTY, EMPTY, EMPTY);
+
+    synchronized List<SessionListener> getListeners() {
+        return Collections.unmodifiableList(new ArrayList<>(this.listeners));
+    }
+
+    synchronized void add(SessionListener listener) {
+        this.listeners.add(listener);
+        this.rebuild();
+    }
+
+    synchronized void remove(SessionListener listener) {
+        if (this.listeners.remove(listener)) {
+            this.rebuild();
+        }
+    }
+
+    Snapshot get() {
+        return this.snapshot;
+    }
+
+    private void rebuild() {
+        List<PacketBatchListener> batch = new ArrayList<>();
+        for (SessionListener listener : this.listeners) {
+            if (listener instanceof PacketBatchListener) {
+                batch.add((PacketBatchListener) listener);
+            }
+        }
+
+        this.snapshot = new Snapshot(
+                this.listeners.toArray(EMPTY),
+                this.filter(listener -> !(listener instanceof PacketBatchListener) && observes(listener, RECEIVED)),
+                batch.toArray(EMPTY_BATCH),
+                this.filter(listener -> observes(listener, SENDING)),
+                this.filter(listener -> observes(listener, SENT)),
+                this.filter(listener -> observes(listener, ERROR)),
+                this.filter(listener -> observes(listener, WRITABILITY)),
+                this.filter(listener -> observes(listener, CONNECTED)),
+                this.filter(listener -> observes(listener, DISCONNECTING)),
+                this.filter(listener -> observes(listener, DISCONNECTED))
+        );
+    }
+
+    private SessionListener[] filter(Predicate<SessionListener> predicate) {
+        return this.listeners.stream().filter(predicate).toArray(SessionListener[]::new);
+    }
+
+    private static boolean observes(SessionListener listener, int event) {
+        return (OBSERVED.get(listener.getClass()) & event) != 0;
+    }
+
+    private static int observed(Class<?> type) {
+        int observed = 0;
+        observed |= overrides(type, RECEIVED, "packetReceived", Session.class, Packet.class);
+        observed |= overrides(type, SENDING, "packetSending", PacketSendingEvent.class);
+        observed |= overrides(type, SENT, "packetSent", Session.class, Packet.class);
+        observed |= overrides(type, ERROR, "packetError", PacketErrorEvent.class);
+        observed |= overrides(type, WRITABILITY, "writabilityChanged", WritabilityChangedEvent.class);
+        observed |= overrides(type, CONNECTED, "connected", ConnectedEvent.class);
+        observed |= overrides(type, DISCONNECTING, "disconnecting", DisconnectingEvent.class);
+        observed |= overrides(type, DISCONNECTED, "disconnected", DisconnectedEvent.class);
+        return observed;
+    }
+
+    private static int overrides(Class<?> type, int event, String name, Class<?>... parameters) {
+        try {
+            Class<?> declaring = type.getMethod(name, parameters).getDeclaringClass();
+            return declaring != SessionAdapter.class && declaring != SessionListener.class ? event : 0;
+        } catch (NoSuchMethodException e) {
+            // Cannot happen for a SessionListener, assume it observes everything.
+            return event;
+        }
+    }
+
+    /**
+     * An immutable view of the listeners at one point in time.
+     */
+    record Snapshot(SessionListener[] all, SessionListener[] received, PacketBatchListener[] batch,
+                    SessionListener[] sending, SessionListener[] sent, SessionListener[] error,
+                    SessionListener[] writability, SessionListener[] connected,
+                    SessionListener[] disconnecting, SessionListener[] disconnected) {
+        /**
+         * Gets the listeners observing an event.
+         *
+         * @param event Event to look up.
+         * @return The listeners to call the event on.
+         */
+        SessionListener[] observing(SessionEvent event) {
+            if (event instanceof PacketSendingEvent) {
+                return this.sending;
+            } else if (event instanceof PacketErrorEvent) {
+                return this.error;
+            } else if (event instanceof WritabilityChangedEvent) {
+                return this.writability;
+            } else if (event instanceof ConnectedEvent) {
+                return this.connected;
+            } else if (event instanceof DisconnectingEvent) {
+                return this.disconnecting;
+            } else if (event instanceof DisconnectedEvent) {
+                return this.disconnected;
+            }
+
+            return this.all;
+        }
+    }
+}
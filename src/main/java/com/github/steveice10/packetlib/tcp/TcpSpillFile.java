@@ -0,0 +1,176 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.packet.BufferedPacket;
+import com.github.steveice10.packetlib.packet.Packet;
+import com.github.steveice10.packetlib.tcp.io.ByteBufNetOutput;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A FIFO of serialized packets backed by a memory-mapped temporary file.
+ *
+ * Each entry is stored as its packet class index, body length and body, and read back
+ * as a {@link BufferedPacket}. The file is created on first use and grows as needed up to
+ * {@link #MAX_CAPACITY} bytes. Entries already read are compacted away once they take up
+ * half of the written part, so a file that is never read empty does not keep growing.
+ * Callers must synchronize access.
+ */
+class TcpSpillFile {
+    static final int MAX_CAPACITY = 256 * 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+
+    private final List<Class<? extends Packet>> classes = new ArrayList<>();
+    private final Map<Class<? extends Packet>, Integer> classIndexes = new IdentityHashMap<>();
+    private final ByteBuf scratch = Unpooled.buffer();
+    private FileChannel file;
+    private MappedByteBuffer mapped;
+    private int readPosition;
+    private int writePosition;
+    private int size;
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Serializes a packet body and appends it to the file.
+     *
+     * @param packetClass Class the packet is sent as.
+     * @param packet Packet to serialize.
+     * @return Whether the packet was appended, false if the file is full.
+     * @throws IOException If the packet could not be serialized or the file could not grow.
+     */
+    boolean write(Class<? extends Packet> packetClass, Packet packet) throws IOException {
+        this.scratch.clear();
+        packet.write(new ByteBufNetOutput(this.scratch));
+
+        int length = this.scratch.readableBytes();
+        if (!this.ensureCapacity(HEADER_SIZE + length)) {
+            return false;
+        }
+
+        Integer index = this.classIndexes.get(packetClass);
+        if (index == null) {
+            index = this.classes.size();
+            this.classes.add(packetClass);
+            this.classIndexes.put(packetClass, index);
+        }
+
+        this.mapped.position(this.writePosition);
+        this.mapped.putInt(index);
+        this.mapped.putInt(length);
+        this.scratch.readBytes(this.mapped);
+        this.writePosition = this.mapped.position();
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Reads the oldest entry back.
+     *
+     * @return The entry as a buffered packet, or null if the file is empty.
+     */
+    Packet read() {
+        if (this.size == 0) {
+            return null;
+        }
+
+        this.mapped.position(this.readPosition);
+        Class<? extends Packet> packetClass = this.classes.get(this.mapped.getInt());
+        byte[] body = new byte[this.mapped.getInt()];
+        this.mapped.get(body);
+        this.readPosition = this.mapped.position();
+
+        if (--this.size == 0) {
+            this.readPosition = 0;
+            this.writePosition = 0;
+        }
+
+        return new BufferedPacket(packetClass, body);
+    }
+
+    private boolean ensureCapacity(int bytes) throws IOException {
+        if (this.mapped != null && this.readPosition > 0 && this.readPosition >= this.writePosition / 2) {
+            this.compact();
+        }
+
+        long required = (long) this.writePosition + bytes;
+        if (this.mapped != null && required <= this.mapped.capacity()) {
+            return true;
+        }
+
+        if (required > MAX_CAPACITY) {
+            return false;
+        }
+
+        if (this.file == null) {
+            Path path = Files.createTempFile("packetlib-spill", ".bin");
+            this.file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        long capacity = this.mapped != null ? this.mapped.capacity() : INITIAL_CAPACITY;
+        while (capacity < required) {
+            capacity *= 2;
+        }
+
+        MappedByteBuffer old = this.mapped;
+        this.mapped = this.file.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity, MAX_CAPACITY));
+        if (old != null) {
+            PlatformDependent.freeDirectBuffer(old);
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves the entries not read yet to the start of the file.
+     */
+    private void compact() {
+        this.mapped.limit(this.writePosition).position(this.readPosition);
+        this.mapped.compact();
+        this.mapped.clear();
+        this.writePosition -= this.readPosition;
+        this.readPosition = 0;
+    }
+
+    /**
+     * Discards all entries and deletes the file.
+     */
+    void close() {
+        this.size = 0;
+        this.readPosition = 0;
+        this.writePosition = 0;
+        this.scratch.release();
+
+        if (this.mapped != null) {
+            PlatformDependent.freeDirectBuffer(this.mapped);
+            this.mapped = null;
+        }
+
+        if (this.file != null) {
+            try {
+                this.file.close();
+            } catch (IOException ignored) {
+            }
+
+            this.file = null;
+        }
+    }
+}
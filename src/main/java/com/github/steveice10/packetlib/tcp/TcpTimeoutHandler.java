@@ -0,0 +1,224 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.BuiltinFlagKeys;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.handler.timeout.WriteTimeoutException;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces a session's read and write timeouts and hibernates it once idle, from one
+ * timer shared by all sessions.
+ *
+ * Reads only record a timestamp. A check on the shared {@link HashedWheelTimer} compares
+ * it against the read timeout and reschedules itself for when the timeout could next
+ * expire. A write times out when queued outbound data has made no progress for the write
+ * timeout, observed the same way as {@link io.netty.handler.timeout.IdleStateHandler}
+ * observes output. A session hibernates once it has neither read nor written for its
+ * {@link BuiltinFlagKeys#HIBERNATE_AFTER} period. Timeouts are read from the session on
+ * every check, so changing them does not touch the pipeline. The hibernation period is
+ * read when the handler is refreshed, so reads and writes only store a timestamp.
+ */
+class TcpTimeoutHandler extends ChannelDuplexHandler implements TimerTask {
+    private static final long MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+    private static Timer timer;
+
+    private final TcpSession session;
+    private ChannelHandlerContext ctx;
+    private Timeout timeout;
+    private volatile boolean closed;
+    private volatile long lastRead;
+    private volatile long lastWrite;
+    private volatile long lastWriteProgress;
+    private volatile long hibernateAfter;
+
+    // Output progress as of the last write check, only touched on the event loop.
+    private Object lastMessage;
+    private long lastPending;
+    private long lastProgress;
+
+    TcpTimeoutHandler(TcpSession session) {
+        this.session = session;
+    }
+
+    static synchronized Timer timer() {
+        if (timer == null) {
+            timer = new HashedWheelTimer(new DefaultThreadFactory("packetlib-timeouts", true), 100, TimeUnit.MILLISECONDS);
+        }
+
+        return timer;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        this.lastRead = System.nanoTime();
+        this.lastWrite = this.lastRead;
+        this.lastWriteProgress = this.lastRead;
+        this.refresh();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        this.close();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.close();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        this.lastRead = System.nanoTime();
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        this.lastWrite = System.nanoTime();
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * Reschedules the next check after the session's timeouts or hibernation period changed.
+     */
+    synchronized void refresh() {
+        this.hibernateAfter = TimeUnit.SECONDS.toNanos(this.session.getFlag(BuiltinFlagKeys.HIBERNATE_AFTER));
+        if (this.timeout != null) {
+            this.timeout.cancel();
+        }
+
+        this.schedule(System.nanoTime());
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        synchronized (this) {
+            if (this.closed || timeout != this.timeout) {
+                return;
+            }
+        }
+
+        long now = System.nanoTime();
+        long readTimeout = TimeUnit.SECONDS.toNanos(this.session.getReadTimeout());
+        if (readTimeout > 0 && now - this.lastRead >= readTimeout) {
+            this.timedOut(ReadTimeoutException.INSTANCE);
+            return;
+        }
+
+        long hibernateAfter = this.hibernateAfter;
+        if (hibernateAfter > 0 && !this.session.isHibernating() && now - this.lastActive() >= hibernateAfter) {
+            this.ctx.channel().eventLoop().execute(this.session::hibernate);
+        }
+
+        if (this.session.getWriteTimeout() > 0) {
+            ChannelOutboundBuffer buffer = this.ctx.channel().unsafe().outboundBuffer();
+            if (buffer == null || buffer.totalPendingWriteBytes() == 0) {
+                this.lastWriteProgress = now;
+            } else {
+                // The outbound buffer is only inspected on its own event loop, and only when it holds data.
+                this.ctx.channel().eventLoop().execute(this::checkWriteProgress);
+            }
+        }
+
+        synchronized (this) {
+            if (!this.closed && timeout == this.timeout) {
+                this.schedule(now);
+            }
+        }
+    }
+
+    private void schedule(long now) {
+        if (this.closed) {
+            return;
+        }
+
+        long readTimeout = TimeUnit.SECONDS.toNanos(this.session.getReadTimeout());
+        long writeTimeout = TimeUnit.SECONDS.toNanos(this.session.getWriteTimeout());
+        long delay = Long.MAX_VALUE;
+        if (readTimeout > 0) {
+            delay = this.lastRead + readTimeout - now;
+        }
+
+        if (writeTimeout > 0) {
+            delay = Math.min(delay, writeTimeout / 2);
+        }
+
+        long hibernateAfter = this.hibernateAfter;
+        if (hibernateAfter > 0) {
+            // Once idle for longer, checked again a full period later in case it woke up.
+            long untilIdle = this.lastActive() + hibernateAfter - now;
+            delay = Math.min(delay, untilIdle > 0 ? untilIdle : hibernateAfter);
+        }
+
+        if (delay == Long.MAX_VALUE) {
+            this.timeout = null;
+            return;
+        }
+
+        this.timeout = timer().newTimeout(this, Math.max(delay, MIN_DELAY), TimeUnit.NANOSECONDS);
+    }
+
+    private long lastActive() {
+        long lastRead = this.lastRead;
+        long lastWrite = this.lastWrite;
+        return lastRead - lastWrite > 0 ? lastRead : lastWrite;
+    }
+
+    private void checkWriteProgress() {
+        long now = System.nanoTime();
+        ChannelOutboundBuffer buffer = this.ctx.channel().unsafe().outboundBuffer();
+        if (buffer == null || buffer.totalPendingWriteBytes() == 0) {
+            this.lastWriteProgress = now;
+            return;
+        }
+
+        Object message = buffer.current();
+        long pending = buffer.totalPendingWriteBytes();
+        long progress = buffer.currentProgress();
+        if (message != this.lastMessage || pending != this.lastPending || progress != this.lastProgress) {
+            this.lastMessage = message;
+            this.lastPending = pending;
+            this.lastProgress = progress;
+            this.lastWriteProgress = now;
+            return;
+        }
+
+        long writeTimeout = TimeUnit.SECONDS.toNanos(this.session.getWriteTimeout());
+        if (writeTimeout > 0 && now - this.lastWriteProgress >= writeTimeout) {
+            this.timedOut(WriteTimeoutException.INSTANCE);
+        }
+    }
+
+    private void timedOut(Throwable cause) {
+        if (this.closed) {
+            return;
+        }
+
+        this.close();
+        this.ctx.channel().eventLoop().execute(() -> {
+            this.ctx.fireExceptionCaught(cause);
+            this.ctx.close();
+        });
+    }
+
+    private synchronized void close() {
+        this.closed = true;
+        this.lastMessage = null;
+        if (this.timeout != null) {
+            this.timeout.cancel();
+            this.timeout = null;
+        }
+    }
+}